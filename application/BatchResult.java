@@ -0,0 +1,69 @@
+package application;
+
+/**
+ * Counts of merging batches into the store. A row whose farm and day are already known, from the
+ * store or from an earlier row of the batch, is a duplicate when its weight is the same and a
+ * conflict when it differs; either way the known record is kept.
+ */
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class BatchResult {
+
+  private int inserted;
+  private int duplicates;
+  private int conflicts;
+
+  /**
+   * account the counts of another merge
+   *
+   * @param other given result
+   * @return this result
+   */
+  public BatchResult add(BatchResult other) {
+    inserted += other.inserted;
+    duplicates += other.duplicates;
+    conflicts += other.conflicts;
+    return this;
+  }
+
+  void addInserted(int count) {
+    inserted += count;
+  }
+
+  void addDuplicate(boolean sameWeight) {
+    if (sameWeight) {
+      duplicates++;
+    } else {
+      conflicts++;
+    }
+  }
+
+  /**
+   * @return the number of rows added to the store
+   */
+  public int getInserted() {
+    return inserted;
+  }
+
+  /**
+   * @return the number of rows skipped because the same record was known
+   */
+  public int getDuplicates() {
+    return duplicates;
+  }
+
+  /**
+   * @return the number of rows skipped because a record of another weight was known
+   */
+  public int getConflicts() {
+    return conflicts;
+  }
+
+  @Override
+  public String toString() {
+    return inserted + " inserted, " + duplicates + " duplicates, " + conflicts
+        + " conflicts";
+  }
+}
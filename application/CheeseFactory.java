@@ -4,34 +4,68 @@ package application;
  * Defines a factory that gets its supplies from multiple farms each year
  */
 
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author Yiyang Gu ygu75@wisc.edu
  */
 public class CheeseFactory {
 
-  private static Map<String, Farm> milkData = new HashMap<>();
+  private static final Metrics.Counter ROWS_INSERTED =
+      Metrics.counter("rows.inserted");
+  private static final Metrics.Counter ROWS_DUPLICATE =
+      Metrics.counter("rows.duplicate");
+  private static final Metrics.Counter ROWS_CONFLICT =
+      Metrics.counter("rows.conflict");
+  private static final LatencyHistogram SYNC_LATENCY =
+      Metrics.histogram("wal.sync");
 
+  private static MilkStore milkData = new MilkStore();
+  // null while changes are not logged
+  private static volatile WriteAheadLog log;
 
   /**
-   * add a new farm into the data map, add that only if there is no farm for the same farmId and date
+   * add a new farm into the data store, add that only if there is no farm for the same farmId and
+   * date
    *
    * @param farm given farm
    * @return true when added successfully, otherwise false
+   * @throws IllegalArgumentException if the year is not from Util.MIN_YEAR to Util.MAX_YEAR
    */
   public static boolean insertFarm(Farm farm) {
-    String key = generateUniqueId(farm);
-    Farm existFarm = milkData.get(key);
-    if (farm.equals(existFarm)) {
-      return false;
+    FlightEvents.RecordChange event = new FlightEvents.RecordChange();
+    event.begin();
+    boolean inserted = milkData.insert(farm.getId(),
+        Util.epochDayOf(farm.getDate()), farm.getWeight());
+    if (inserted) {
+      syncLog();
     }
-    milkData.put(key, farm);
-    return true;
+    event.finish("insert", farm, inserted);
+    return inserted;
+  }
+
+  /**
+   * add all rows of the given batch into the data store, a row is skipped when there is already a
+   * farm for the same farmId and date
+   *
+   * @param batch given batch
+   * @return the numbers of inserted, duplicate and conflicting rows
+   */
+  public static BatchResult insertBatch(MilkBatch batch) {
+    FlightEvents.BatchInsert event = new FlightEvents.BatchInsert();
+    event.begin();
+    BatchResult result = milkData.insertBatch(batch);
+    if (result.getInserted() > 0) {
+      syncLog();
+    }
+    event.finish(batch, result);
+    ROWS_INSERTED.add(result.getInserted());
+    ROWS_DUPLICATE.add(result.getDuplicates());
+    ROWS_CONFLICT.add(result.getConflicts());
+    return result;
   }
 
   /**
@@ -40,43 +74,102 @@ public class CheeseFactory {
    *
    * @param newFarm new farm info
    * @return true when edit successfully, otherwise false
+   * @throws IllegalArgumentException if the year is not from Util.MIN_YEAR to Util.MAX_YEAR
    */
   public static boolean editFarm(Farm newFarm) {
-    String key = generateUniqueId(newFarm);
-    Farm existFarm = milkData.get(key);
-    if (null == existFarm) {
-      return false;
+    FlightEvents.RecordChange event = new FlightEvents.RecordChange();
+    event.begin();
+    boolean edited = milkData.update(newFarm.getId(),
+        Util.epochDayOf(newFarm.getDate()), newFarm.getWeight());
+    if (edited) {
+      syncLog();
     }
-    existFarm.setWeight(newFarm.getWeight());
-    return true;
+    event.finish("edit", newFarm, edited);
+    return edited;
   }
 
   /**
-   * remove the farm with same farmID and date from the data map
+   * remove the farm with same farmID and date from the data store
    *
    * @param farm given farm
    * @return removed farm if exists or null for non-exists.
+   * @throws IllegalArgumentException if the year is not from Util.MIN_YEAR to Util.MAX_YEAR
    */
   public static Farm removeFarm(Farm farm) {
-    return milkData.remove(generateUniqueId(farm));
+    FlightEvents.RecordChange event = new FlightEvents.RecordChange();
+    event.begin();
+    Farm removed =
+        milkData.remove(farm.getId(), Util.epochDayOf(farm.getDate()));
+    if (null != removed) {
+      syncLog();
+    }
+    event.finish("remove", farm, null != removed);
+    return removed;
   }
 
   /**
    * @return all farms list
    */
   public static List<Farm> getFarms() {
-    return new ArrayList<>(milkData.values());
+    return milkData.toFarms();
+  }
+
+  /**
+   * @return an immutable view of all farms that can be read while the data store changes
+   */
+  public static MilkSnapshot snapshot() {
+    return milkData.snapshot();
+  }
+
+  /**
+   * @return the underlying columnar store
+   */
+  public static MilkStore getStore() {
+    return milkData;
   }
 
   /**
-   * in the dataset, a farm is identified only by its ID and Date.
+   * restore the data store from the write-ahead log of the directory and log every later change,
+   * the data store should be empty
    *
-   * @param farm given farm
-   * @return a string stands fot the farm's unique id
+   * @param directory log directory
+   * @throws IOException if the log can not be read or written
+   */
+  public static synchronized void openLog(File directory) throws IOException {
+    if (null != log) {
+      throw new IllegalStateException("The log is open already");
+    }
+    log = WriteAheadLog.open(directory, milkData);
+  }
+
+  /**
+   * write the logged changes and stop logging
+   *
+   * @throws IOException if the log can not be written
    */
-  private static String generateUniqueId(Farm farm) {
-    return farm.getId() + "#"
-        + farm.getDate().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+  public static synchronized void closeLog() throws IOException {
+    WriteAheadLog current = log;
+    log = null;
+    if (null != current) {
+      current.close();
+    }
+  }
+
+  /**
+   * wait until the change just made is in the log, a no-op while changes are not logged
+   */
+  private static void syncLog() {
+    WriteAheadLog current = log;
+    if (null != current) {
+      long started = Metrics.start();
+      try {
+        current.sync();
+        SYNC_LATENCY.recordSince(started);
+      } catch (IOException e) {
+        throw new UncheckedIOException(
+            "The change is made but not logged: " + e.getMessage(), e);
+      }
+    }
   }
 
 }
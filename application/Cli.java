@@ -0,0 +1,207 @@
+package application;
+
+/**
+ * Headless batch mode: loads data files or folders, runs one report and prints it as csv or json to
+ * stdout. Nothing here touches JavaFX, so reports can run from cron on machines without a display.
+ *
+ * Usage: java -jar executable.jar annual 2019 --format json csv/csv/large
+ */
+
+import java.io.File;
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class Cli {
+
+  private static final List<String> COMMANDS =
+      Arrays.asList("farm", "annual", "monthly", "range", "top-farms",
+          "top-days", "percentiles");
+  private static final String USAGE = String.join("\n",
+      "Usage: java -jar executable.jar <command> [options]"
+          + " <file or folder>...",
+      "Commands:", "  farm <farmId> <year>", "  annual <year>",
+      "  monthly <year> <month>", "  range <start yyyy-mm-dd> <end yyyy-mm-dd>",
+      "  top-farms <start> <end> <k>", "  top-days <start> <end> <k>",
+      "  percentiles <start> <end>      p50, p90 and p99 of each farm",
+      "Options:", "  --format csv|json   output format, csv by default",
+      "  --sort id|weight    sort field of annual, monthly and range reports",
+      "  --desc              sort descending",
+      "  --metrics           print load and report metrics to stderr");
+
+  private Cli() {}
+
+  public static void main(String[] args) {
+    System.exit(run(args, System.out, System.err));
+  }
+
+  /**
+   * @param args command line arguments
+   * @return true if the arguments start with a report command
+   */
+  public static boolean isCommand(String[] args) {
+    return args.length > 0 && COMMANDS.contains(args[0]);
+  }
+
+  /**
+   * run one report command
+   *
+   * @param args command, its arguments, options and input paths
+   * @param out receiver of the report
+   * @param err receiver of errors
+   * @return the exit code, 0 on success, 1 when an input can not be loaded and 2 for illegal
+   *         arguments
+   */
+  public static int run(String[] args, PrintStream out, PrintStream err) {
+    String format = "csv";
+    FiledType sortedBy = FiledType.ID;
+    boolean asc = true;
+    boolean metrics = false;
+    List<String> positional = new ArrayList<>();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--format":
+            format = value(args, ++i).toLowerCase();
+            if (!"csv".equals(format) && !"json".equals(format)) {
+              throw new IllegalArgumentException("Illegal format:" + format);
+            }
+            break;
+          case "--sort":
+            String field = value(args, ++i).toUpperCase();
+            if (!"ID".equals(field) && !"WEIGHT".equals(field)) {
+              throw new IllegalArgumentException("Illegal sort field:" + field);
+            }
+            sortedBy = FiledType.valueOf(field);
+            break;
+          case "--desc":
+            asc = false;
+            break;
+          case "--metrics":
+            metrics = true;
+            break;
+          default:
+            if (args[i].startsWith("--")) {
+              throw new IllegalArgumentException("Illegal option:" + args[i]);
+            }
+            positional.add(args[i]);
+        }
+      }
+      if (positional.isEmpty() || !COMMANDS.contains(positional.get(0))) {
+        throw new IllegalArgumentException("Missing command");
+      }
+      String command = positional.get(0);
+      int arity = "annual".equals(command) ? 1
+          : command.startsWith("top-") ? 3 : 2;
+      if (positional.size() < 2 + arity) {
+        throw new IllegalArgumentException("Missing arguments or input files");
+      }
+      List<String> commandArgs = positional.subList(1, 1 + arity);
+      List<File> files =
+          listFiles(positional.subList(1 + arity, positional.size()));
+
+      List<String> errors = load(files);
+      for (String error : errors) {
+        err.println(error);
+      }
+      ReportTable table = report(command, commandArgs, sortedBy, asc);
+      out.print("json".equals(format) ? table.toJson() : table.toCsv());
+      out.flush();
+      if (metrics) {
+        err.print(Metrics.dump());
+      }
+      return errors.isEmpty() ? 0 : 1;
+    } catch (IllegalArgumentException e) {
+      err.println(e.getMessage());
+      err.println(USAGE);
+      return 2;
+    }
+  }
+
+  private static String value(String[] args, int i) {
+    if (i >= args.length) {
+      throw new IllegalArgumentException("Missing value of " + args[i - 1]);
+    }
+    return args[i];
+  }
+
+  /**
+   * @param paths files or folders
+   * @return the given files and the files directly inside the given folders
+   */
+  static List<File> listFiles(List<String> paths) {
+    List<File> files = new ArrayList<>();
+    for (String path : paths) {
+      File file = new File(path);
+      if (file.isDirectory()) {
+        File[] children = file.listFiles(File::isFile);
+        if (null != children) {
+          Arrays.sort(children);
+          files.addAll(Arrays.asList(children));
+        }
+      } else if (file.isFile()) {
+        files.add(file);
+      } else {
+        throw new IllegalArgumentException("No such file:" + path);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * parse the files in parallel and merge them into the CheeseFactory
+   *
+   * @return the errors of the files that could not be loaded
+   */
+  static List<String> load(List<File> files) {
+    try {
+      FolderImporter.ImportResult result =
+          new FolderImporter().importFiles(files, null);
+      result.merge();
+      return result.getErrors();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Arrays.asList("Import interrupted");
+    }
+  }
+
+  private static ReportTable report(String command, List<String> args,
+      FiledType sortedBy, boolean asc) {
+    DataManager dataManager = new DataManager();
+    switch (command) {
+      case "farm":
+        return ReportTable.ofFarmReports(dataManager
+            .getFarmReport(args.get(0), Util.parseAsInt(args.get(1))));
+      case "annual":
+        return ReportTable.ofRangeReports(dataManager.getAnnualReport(
+            Util.parseAsInt(args.get(0)), sortedBy, asc));
+      case "monthly":
+        return ReportTable.ofRangeReports(
+            dataManager.getMonthlyReport(Util.parseAsInt(args.get(0)),
+                Util.parseAsInt(args.get(1)), sortedBy, asc));
+      case "top-farms":
+        return ReportTable.ofRangeReports(dataManager.getTopFarms(
+            Util.parseAsDate(args.get(0)), Util.parseAsDate(args.get(1)),
+            Util.parseAsInt(args.get(2))));
+      case "top-days":
+        return ReportTable.ofFarms(dataManager.getTopDays(
+            Util.parseAsDate(args.get(0)), Util.parseAsDate(args.get(1)),
+            Util.parseAsInt(args.get(2))));
+      case "percentiles":
+        return ReportTable.ofPercentileReports(
+            dataManager.getPercentileReports(Util.parseAsDate(args.get(0)),
+                Util.parseAsDate(args.get(1)), DataManager.DEFAULT_QUANTILES),
+            DataManager.DEFAULT_QUANTILES);
+      default:
+        LocalDate start = Util.parseAsDate(args.get(0));
+        LocalDate end = Util.parseAsDate(args.get(1));
+        return ReportTable.ofRangeReports(
+            dataManager.getDateRangeReports(start, end, sortedBy, asc));
+    }
+  }
+}
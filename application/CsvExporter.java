@@ -0,0 +1,180 @@
+package application;
+
+/**
+ * Streaming csv exporter. Rows are read from a snapshot without materializing farms, dates and
+ * digits are appended straight into a reusable byte buffer and the buffer is written through a
+ * FileChannel in large chunks. The export can be limited to a set of farms and a date range.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Set;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class CsvExporter {
+
+  private static final byte[] HEADER =
+      "date,farm_id,weight\n".getBytes(StandardCharsets.US_ASCII);
+  private static final int BUFFER_SIZE = 1 << 18;
+  // longest row tail after the farm id: a comma, an int and a newline
+  private static final int MAX_TAIL = 13;
+
+  private Set<String> farmIds;
+  private int startDay;
+  private int endDay;
+  private byte[] buf = new byte[BUFFER_SIZE];
+  private int pos;
+  // "yyyy-MM-" of the month of the last written date
+  private byte[] monthPrefix = new byte[8];
+  private int monthStart = Integer.MAX_VALUE;
+  private int monthEnd = Integer.MIN_VALUE;
+
+  /**
+   * export all farms and dates
+   */
+  public CsvExporter() {
+    this(null, null, null);
+  }
+
+  /**
+   * @param farmIds farms to export, null for all farms
+   * @param start the inclusive first date, null for no lower bound
+   * @param end the inclusive last date, null for no upper bound
+   */
+  public CsvExporter(Set<String> farmIds, LocalDate start, LocalDate end) {
+    this.farmIds = farmIds;
+    this.startDay =
+        null == start ? Integer.MIN_VALUE : Util.clampedEpochDayOf(start);
+    this.endDay =
+        null == end ? Integer.MAX_VALUE : Util.clampedEpochDayOf(end);
+  }
+
+  /**
+   * write the selected records of the snapshot into the file in csv format with header
+   * "date,farm_id,weight", sorted by farm and date
+   *
+   * @param snapshot given snapshot
+   * @param outputFile output file
+   * @return the number of rows written
+   * @throws IOException if the file can not be written
+   */
+  public long export(MilkSnapshot snapshot, File outputFile)
+      throws IOException {
+    long rows = 0;
+    pos = 0;
+    try (FileChannel channel = FileChannel.open(outputFile.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      append(HEADER, channel);
+      for (int code = 0; code < snapshot.getFarmCount(); code++) {
+        if (null != farmIds && !farmIds.contains(snapshot.nameOf(code))) {
+          continue;
+        }
+        byte[] name = snapshot.nameOf(code).getBytes(StandardCharsets.UTF_8);
+        int from = snapshot.indexOf(code, startDay);
+        from = from < 0 ? -from - 1 : from;
+        for (int i = from; i < snapshot.size(code); i++) {
+          int day = snapshot.dayAt(code, i);
+          if (day > endDay) {
+            break;
+          }
+          appendDate(day, channel);
+          buf[pos++] = ',';
+          append(name, channel);
+          if (pos + MAX_TAIL > buf.length) {
+            flush(channel);
+          }
+          buf[pos++] = ',';
+          appendInt(snapshot.weightAt(code, i));
+          buf[pos++] = '\n';
+          rows++;
+        }
+      }
+      flush(channel);
+    }
+    return rows;
+  }
+
+  /**
+   * append the date as LocalDate.toString() would print it, the year and month are formatted once
+   * per month
+   */
+  private void appendDate(int day, FileChannel channel) throws IOException {
+    // room for any date and the comma after it
+    if (pos + 16 > buf.length) {
+      flush(channel);
+    }
+    if (day < monthStart || day > monthEnd) {
+      LocalDate date = LocalDate.ofEpochDay(day);
+      if (date.getYear() < 0 || date.getYear() > 9999) {
+        // years outside four digits are rare, let LocalDate print the sign and digits
+        append(date.toString().getBytes(StandardCharsets.US_ASCII), channel);
+        return;
+      }
+      monthStart = day - date.getDayOfMonth() + 1;
+      monthEnd = monthStart + date.lengthOfMonth() - 1;
+      writeDigits(monthPrefix, 0, date.getYear(), 4);
+      monthPrefix[4] = '-';
+      writeDigits(monthPrefix, 5, date.getMonthValue(), 2);
+      monthPrefix[7] = '-';
+    }
+    System.arraycopy(monthPrefix, 0, buf, pos, 8);
+    writeDigits(buf, pos + 8, day - monthStart + 1, 2);
+    pos += 10;
+  }
+
+  private void appendInt(int value) {
+    long remaining = value;
+    if (remaining < 0) {
+      buf[pos++] = '-';
+      remaining = -remaining;
+    }
+    int digits = 1;
+    for (long bound = 10; bound <= remaining; bound *= 10) {
+      digits++;
+    }
+    for (int i = pos + digits - 1; i >= pos; i--) {
+      buf[i] = (byte) ('0' + remaining % 10);
+      remaining /= 10;
+    }
+    pos += digits;
+  }
+
+  private static void writeDigits(byte[] target, int offset, int value,
+      int digits) {
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      target[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  private void append(byte[] bytes, FileChannel channel) throws IOException {
+    if (pos + bytes.length > buf.length) {
+      flush(channel);
+      if (bytes.length > buf.length) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        return;
+      }
+    }
+    System.arraycopy(bytes, 0, buf, pos, bytes.length);
+    pos += bytes.length;
+  }
+
+  private void flush(FileChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(buf, 0, pos);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    pos = 0;
+  }
+}
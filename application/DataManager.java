@@ -6,15 +6,55 @@ package application;
 
 import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * @author Yiyang Gu ygu75@wisc.edu
  */
 public class DataManager {
 
+  // p50, p90 and p99
+  public static final double[] DEFAULT_QUANTILES = {0.5, 0.9, 0.99};
+
+  // the head of a heap of the heaviest records is the weakest kept record, ties keep the earlier
+  // date and farm id
+  private static final Comparator<Farm> WEAKEST_DAY_FIRST =
+      Comparator.comparingInt(Farm::getWeight)
+          .thenComparing(Farm::getDate, Comparator.reverseOrder())
+          .thenComparing(Farm::getId, Comparator.reverseOrder());
+
+  private static final LatencyHistogram FARM_LATENCY =
+      Metrics.histogram("report.farm");
+  private static final LatencyHistogram ANNUAL_LATENCY =
+      Metrics.histogram("report.annual");
+  private static final LatencyHistogram MONTHLY_LATENCY =
+      Metrics.histogram("report.monthly");
+  private static final LatencyHistogram RANGE_LATENCY =
+      Metrics.histogram("report.range");
+  private static final LatencyHistogram SORTED_LATENCY =
+      Metrics.histogram("report.sorted");
+  private static final LatencyHistogram TOP_FARMS_LATENCY =
+      Metrics.histogram("report.topFarms");
+  private static final LatencyHistogram TOP_DAYS_LATENCY =
+      Metrics.histogram("report.topDays");
+  private static final LatencyHistogram PERCENTILES_LATENCY =
+      Metrics.histogram("report.percentiles");
+
+  private ParallelAggregator aggregator;
+
+  public DataManager() {
+    this(ParallelAggregator.getDefault());
+  }
 
-  public DataManager() {}
+  /**
+   * @param aggregator runs the per farm work of the reports
+   */
+  public DataManager(ParallelAggregator aggregator) {
+    this.aggregator = aggregator;
+  }
 
 
   /**
@@ -27,14 +67,17 @@ public class DataManager {
    */
   public Map<Integer, Double> getMonthlyAverageForFarm(String farmId,
       int year) {
-    List<Farm> farms = CheeseFactory.getFarms();
-    farms = farms.stream()
-        .filter(farm -> farm.getId().equals(farmId) && farm.getYear() == year)
-        .collect(Collectors.toList());
-    Map<Integer, Double> monthAvgWeightMap =
-        farms.stream().collect(Collectors.groupingBy(Farm::getMonth,
-            Collectors.averagingDouble(Farm::getWeight)));
-    return new TreeMap<>(monthAvgWeightMap);
+    Map<Integer, Double> monthAvgWeightMap = new TreeMap<>();
+    readRollup(farmId, rollup -> {
+      for (int month = 1; month <= 12; month++) {
+        int count = rollup.getCount(year, month);
+        if (count > 0) {
+          monthAvgWeightMap.put(month,
+              (double) rollup.getSum(year, month) / count);
+        }
+      }
+    });
+    return monthAvgWeightMap;
   }
 
   /**
@@ -47,13 +90,18 @@ public class DataManager {
    */
   public Map<Integer, Optional<Farm>> getMonthlyMinForFarm(String farmId,
       int year) {
-    List<Farm> farms = CheeseFactory.getFarms();
-    farms = farms.stream()
-        .filter(farm -> farm.getId().equals(farmId) && farm.getYear() == year)
-        .collect(Collectors.toList());
-    return new TreeMap<>(
-        farms.stream().collect(Collectors.groupingBy(Farm::getMonth,
-            Collectors.minBy(Comparator.comparing(Farm::getWeight)))));
+    Map<Integer, Optional<Farm>> monthMinMap = new TreeMap<>();
+    readRollup(farmId, rollup -> {
+      for (int month = 1; month <= 12; month++) {
+        if (rollup.getCount(year, month) > 0) {
+          monthMinMap.put(month,
+              Optional.of(new Farm(farmId,
+                  LocalDate.ofEpochDay(rollup.getMinDay(year, month)),
+                  rollup.getMin(year, month))));
+        }
+      }
+    });
+    return monthMinMap;
   }
 
   /**
@@ -66,13 +114,18 @@ public class DataManager {
    */
   public Map<Integer, Optional<Farm>> getMonthlyMaxForFarm(String farmId,
       int year) {
-    List<Farm> farms = CheeseFactory.getFarms();
-    farms = farms.stream()
-        .filter(farm -> farm.getId().equals(farmId) && farm.getYear() == year)
-        .collect(Collectors.toList());
-    return new TreeMap<>(
-        farms.stream().collect(Collectors.groupingBy(Farm::getMonth,
-            Collectors.maxBy(Comparator.comparing(Farm::getWeight)))));
+    Map<Integer, Optional<Farm>> monthMaxMap = new TreeMap<>();
+    readRollup(farmId, rollup -> {
+      for (int month = 1; month <= 12; month++) {
+        if (rollup.getCount(year, month) > 0) {
+          monthMaxMap.put(month,
+              Optional.of(new Farm(farmId,
+                  LocalDate.ofEpochDay(rollup.getMaxDay(year, month)),
+                  rollup.getMax(year, month))));
+        }
+      }
+    });
+    return monthMaxMap;
   }
 
   /**
@@ -81,31 +134,68 @@ public class DataManager {
    * @return all farms' information sorted by the given field in given order
    */
   public List<Farm> getDataSortedByField(FiledType field, boolean asc) {
-    List<Farm> farms = CheeseFactory.getFarms();
-    switch (field) {
-      case ID:
-        if (asc) {
-          farms.sort(Comparator.comparing(Farm::getId));
-        } else {
-          farms.sort(Comparator.comparing(Farm::getId).reversed());
-        }
-        break;
-      case DATE:
-        if (asc) {
-          farms.sort(Comparator.comparing(Farm::getDate));
-        } else {
-          farms.sort(Comparator.comparing(Farm::getDate).reversed());
-        }
-        break;
-      case WEIGHT:
-        if (asc) {
-          farms.sort(Comparator.comparing(Farm::getWeight));
-        } else {
-          farms.sort(Comparator.comparing(Farm::getWeight).reversed());
-        }
-        break;
-      default:
+    return getDataSortedByField(field, asc, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * One page of the farms' information sorted by the given field, nothing is sorted per call. Farms
+   * with the same id are in date order, farms with the same date or weight are in the order of
+   * CheeseFactory.getFarms() in both directions.
+   *
+   * @param field given sorted field of the farm
+   * @param asc indicate ascending or descending
+   * @param offset the number of skipped farms
+   * @param limit the max number of returned farms
+   * @return the farms' information from offset sorted by the given field in given order
+   */
+  public List<Farm> getDataSortedByField(FiledType field, boolean asc,
+      int offset, int limit) {
+    if (offset < 0 || limit < 0) {
+      throw new IllegalArgumentException("Illegal offset or limit");
+    }
+    return report("sorted", SORTED_LATENCY, () -> field
+        + (asc ? " asc" : " desc") + " offset=" + offset + " limit=" + limit,
+        event -> sortFarms(field, asc, offset, limit));
+  }
+
+  /**
+   * @see #getDataSortedByField(FiledType, boolean, int, int)
+   */
+  private List<Farm> sortFarms(FiledType field, boolean asc, int offset,
+      int limit) {
+    MilkStore store = CheeseFactory.getStore();
+    List<Farm> farms = new ArrayList<>(Math.min(limit, 1 << 16));
+    if (FiledType.ID != field) {
+      store.sortedPage(field, asc, offset, limit,
+          (code, day, weight) -> farms.add(new Farm(
+              store.getDictionary().nameOf(code), LocalDate.ofEpochDay(day),
+              weight)));
+      return farms;
+    }
+    // each farm's records are already sorted by day, walk the farms in id order
+    MilkSnapshot snapshot = store.snapshot();
+    Integer[] codes = new Integer[snapshot.getFarmCount()];
+    for (int code = 0; code < codes.length; code++) {
+      codes[code] = code;
+    }
+    Comparator<Integer> byName = Comparator.comparing(snapshot::nameOf);
+    Arrays.sort(codes, asc ? byName : byName.reversed());
+    int skip = offset;
+    for (int code : codes) {
+      int size = snapshot.size(code);
+      if (skip >= size) {
+        skip -= size;
+        continue;
+      }
+      for (int pos = skip; pos < size && farms.size() < limit; pos++) {
+        farms.add(new Farm(snapshot.nameOf(code),
+            LocalDate.ofEpochDay(snapshot.dayAt(code, pos)),
+            snapshot.weightAt(code, pos)));
+      }
+      skip = 0;
+      if (farms.size() == limit) {
         break;
+      }
     }
     return farms;
   }
@@ -120,43 +210,65 @@ public class DataManager {
    * @return report of the given farm for each month sorted by month number 1-12
    */
   public List<FarmReport> getFarmReport(String farmId, int year) {
-    // get all correspondent information in the given year
-    List<Farm> farms = CheeseFactory.getFarms();
-    farms = farms.stream().filter(farm -> farm.getYear() == year)
-        .collect(Collectors.toList());
-    // calculate total weight for each month for all farms
-    Map<Integer, Double> monthTotalMapForAllFarms =
-        farms.stream().collect(Collectors.groupingBy(Farm::getMonth,
-            Collectors.summingDouble(Farm::getWeight)));
-
-    // get all correspondent information of the farm in the given year
-    farms = farms.stream().filter(farm -> farm.getId().equals(farmId))
-        .collect(Collectors.toList());
-    // calculate total weight for each month for the given farm
-    Map<Integer, Integer> monthTotalMapForFarm =
-        farms.stream().collect(Collectors.groupingBy(Farm::getMonth,
-            Collectors.summingInt(Farm::getWeight)));
-
-    // calculate the min,max and average weight for each month for the given farm
-    Map<Integer, Optional<Farm>> monthMinMap =
-        getMonthlyMinForFarm(farmId, year);
-    Map<Integer, Optional<Farm>> monthMaxMap =
-        getMonthlyMaxForFarm(farmId, year);
-    Map<Integer, Double> monthlyAvgWeightMap =
-        getMonthlyAverageForFarm(farmId, year);
+    return report("farm", FARM_LATENCY,
+        () -> "farm=" + farmId + " year=" + year,
+        event -> farmReport(farmId, year, event));
+  }
 
-    // generate the report using above information
+  /**
+   * @see #getFarmReport(String, int)
+   */
+  private List<FarmReport> farmReport(String farmId, int year,
+      FlightEvents.Report event) {
     List<FarmReport> reports = new ArrayList<>();
-    monthTotalMapForFarm.forEach((month, totalForFarm) -> {
-      double total = monthTotalMapForAllFarms.get(month);
-      double percent = totalForFarm / total * 100;
-      int minWeight = monthMinMap.get(month).get().getWeight();
-      int maxWeight = monthMaxMap.get(month).get().getWeight();
-      double avgWeight = monthlyAvgWeightMap.get(month);
-      reports.add(new FarmReport(month, totalForFarm, percent, minWeight,
-          maxWeight, avgWeight));
+    MilkStore store = CheeseFactory.getStore();
+    int farmCode = store.getDictionary().codeOf(farmId);
+    if (farmCode < 0) {
+      return reports;
+    }
+    // one pass over the monthly rollups of all farms fills the totals of all farms and every column
+    // of the given farm, each task keeps a pair of accumulators
+    MonthAccumulator[] totals = aggregator.reduce(store,
+        store.getDictionary().size(),
+        () -> new MonthAccumulator[] {new MonthAccumulator(),
+            new MonthAccumulator()},
+        (accumulators, code) -> store.read(code, column -> {
+          MonthlyRollup rollup = column.getRollup();
+          for (int month = 1; month <= 12; month++) {
+            int count = rollup.getCount(year, month);
+            if (0 == count) {
+              continue;
+            }
+            long sum = rollup.getSum(year, month);
+            int min = rollup.getMin(year, month);
+            int max = rollup.getMax(year, month);
+            accumulators[0].add(month, sum, count, min, max);
+            if (code == farmCode) {
+              accumulators[1].add(month, sum, count, min, max);
+            }
+          }
+        }), (left, right) -> new MonthAccumulator[] {left[0].merge(right[0]),
+            left[1].merge(right[1])});
+    MonthAccumulator allFarms = totals[0];
+    MonthAccumulator farm = totals[1];
+
+    // generate the report using above information
+    for (int month = 1; month <= 12; month++) {
+      if (0 == farm.getCount(month)) {
+        continue;
+      }
+      int totalForFarm = (int) farm.getSum(month);
+      double percent = (double) totalForFarm / allFarms.getSum(month) * 100;
+      reports.add(new FarmReport(month, totalForFarm, percent,
+          farm.getMin(month), farm.getMax(month), farm.getAvg(month)));
+    }
+    event.countRecords(() -> {
+      long records = 0;
+      for (int month = 1; month <= 12; month++) {
+        records += allFarms.getCount(month);
+      }
+      return records;
     });
-    reports.sort(Comparator.comparing(FarmReport::getMonth));
     return reports;
   }
 
@@ -172,11 +284,13 @@ public class DataManager {
    */
   public List<DateRangeReport> getAnnualReport(int year, FiledType sortedBy,
       boolean asc) {
-    List<Farm> farms = CheeseFactory.getFarms();
-    farms = farms.stream().filter(farm -> farm.getYear() == year)
-        .collect(Collectors.toList());
-    Map<String, Summary> summaryMap = getSummaryForFarm(farms);
-    return getDateRangeReports(farms, summaryMap, sortedBy, asc);
+    return report("annual", ANNUAL_LATENCY,
+        () -> "year=" + year + " " + sortedBy + (asc ? " asc" : " desc"),
+        event -> {
+          RangeStats[] stats = getRollupStats(year, 1, 12);
+          event.countRecords(() -> countOf(stats));
+          return toReports(stats, sortedBy, asc);
+        });
   }
 
   /**
@@ -192,12 +306,12 @@ public class DataManager {
    */
   public List<DateRangeReport> getMonthlyReport(int year, int month,
       FiledType sortedBy, boolean asc) {
-    List<Farm> farms = CheeseFactory.getFarms();
-    farms = farms.stream()
-        .filter(farm -> farm.getYear() == year && farm.getMonth() == month)
-        .collect(Collectors.toList());
-    Map<String, Summary> summaryMap = getSummaryForFarm(farms);
-    return getDateRangeReports(farms, summaryMap, sortedBy, asc);
+    return report("monthly", MONTHLY_LATENCY, () -> "year=" + year + " month="
+        + month + " " + sortedBy + (asc ? " asc" : " desc"), event -> {
+          RangeStats[] stats = getRollupStats(year, month, month);
+          event.countRecords(() -> countOf(stats));
+          return toReports(stats, sortedBy, asc);
+        });
   }
 
   /**
@@ -213,57 +327,386 @@ public class DataManager {
    */
   public List<DateRangeReport> getDateRangeReports(LocalDate start,
       LocalDate end, FiledType sortedBy, boolean asc) {
-    List<Farm> farms = CheeseFactory.getFarms();
-    farms =
-        farms.stream()
-            .filter(farm -> farm.getDate().compareTo(start) >= 0
-                && farm.getDate().compareTo(end) <= 0)
-            .collect(Collectors.toList());
-    Map<String, Summary> summaryMap = getSummaryForFarm(farms);
-    return getDateRangeReports(farms, summaryMap, sortedBy, asc);
+    return report("range", RANGE_LATENCY, () -> "start=" + start + " end="
+        + end + " " + sortedBy + (asc ? " asc" : " desc"),
+        event -> rangeReports(start, end, sortedBy, asc, event));
+  }
+
+  /**
+   * @see #getDateRangeReports(LocalDate, LocalDate, FiledType, boolean)
+   */
+  private List<DateRangeReport> rangeReports(LocalDate start, LocalDate end,
+      FiledType sortedBy, boolean asc, FlightEvents.Report event) {
+    MilkStore store = CheeseFactory.getStore();
+    int startDay = Util.clampedEpochDayOf(start);
+    int endDay = Util.clampedEpochDayOf(end);
+    RangeStats[] stats = new RangeStats[store.getDictionary().size()];
+    aggregator.forEachFarm(store, stats.length, code -> {
+      RangeStats farmStats = new RangeStats();
+      stats[code] = farmStats;
+      store.read(code,
+          column -> column.aggregate(startDay, endDay, farmStats));
+    });
+    event.countRecords(() -> countOf(stats));
+    return toReports(stats, sortedBy, asc);
+  }
+
+  /**
+   * Find the farms with the most total milk weight over the date range. The farms are kept in a
+   * heap bounded by k instead of being sorted.
+   *
+   * @param start the inclusive start date
+   * @param end the inclusive end date
+   * @param k the max number of farms
+   * @return report of at most k farms sorted by total weight descending, ties by farm id
+   */
+  public List<DateRangeReport> getTopFarms(LocalDate start, LocalDate end,
+      int k) {
+    if (k < 0) {
+      throw new IllegalArgumentException("Illegal k:" + k);
+    }
+    return report("topFarms", TOP_FARMS_LATENCY,
+        () -> "start=" + start + " end=" + end + " k=" + k,
+        event -> topFarms(start, end, k, event));
+  }
+
+  /**
+   * @see #getTopFarms(LocalDate, LocalDate, int)
+   */
+  private List<DateRangeReport> topFarms(LocalDate start, LocalDate end, int k,
+      FlightEvents.Report event) {
+    MilkStore store = CheeseFactory.getStore();
+    FarmDictionary dictionary = store.getDictionary();
+    int startDay = Util.clampedEpochDayOf(start);
+    int endDay = Util.clampedEpochDayOf(end);
+    RangeStats[] stats = new RangeStats[dictionary.size()];
+    // the head is the weakest kept farm
+    PriorityQueue<Integer> top = new PriorityQueue<>(
+        Comparator.<Integer>comparingLong(code -> stats[code].getSum())
+            .thenComparing(dictionary::nameOf, Comparator.reverseOrder()));
+    aggregator.forEachFarm(store, stats.length, code -> {
+      RangeStats farmStats = new RangeStats();
+      stats[code] = farmStats;
+      store.read(code,
+          column -> column.aggregate(startDay, endDay, farmStats));
+    });
+    double total = 0;
+    for (int code = 0; code < stats.length; code++) {
+      if (0 == stats[code].getCount()) {
+        continue;
+      }
+      total += stats[code].getSum();
+      top.add(code);
+      if (top.size() > k) {
+        top.poll();
+      }
+    }
+    LinkedList<DateRangeReport> reports = new LinkedList<>();
+    while (!top.isEmpty()) {
+      int code = top.poll();
+      reports.addFirst(toReport(dictionary.nameOf(code), stats[code], total));
+    }
+    event.countRecords(() -> countOf(stats));
+    return reports;
+  }
+
+  /**
+   * Find the heaviest single day records over the date range. The records are kept in a heap
+   * bounded by k, and a month is skipped without being scanned when its max weight from the
+   * monthly rollup can not enter the heap.
+   *
+   * @param start the inclusive start date
+   * @param end the inclusive end date
+   * @param k the max number of records
+   * @return at most k records sorted by weight descending, ties by date and farm id
+   */
+  public List<Farm> getTopDays(LocalDate start, LocalDate end, int k) {
+    if (k < 0) {
+      throw new IllegalArgumentException("Illegal k:" + k);
+    }
+    return report("topDays", TOP_DAYS_LATENCY,
+        () -> "start=" + start + " end=" + end + " k=" + k,
+        event -> topDays(start, end, k, event));
+  }
+
+  /**
+   * @see #getTopDays(LocalDate, LocalDate, int)
+   */
+  private List<Farm> topDays(LocalDate start, LocalDate end, int k,
+      FlightEvents.Report event) {
+    // only counted while the event is recorded
+    LongAdder scanned = event.isEnabled() ? new LongAdder() : null;
+    MilkStore store = CheeseFactory.getStore();
+    FarmDictionary dictionary = store.getDictionary();
+    int startDay = Util.clampedEpochDayOf(start);
+    int endDay = Util.clampedEpochDayOf(end);
+    // each task keeps its own bounded heap, the heaps are merged while the tasks join
+    PriorityQueue<Farm> top = aggregator.reduce(store, dictionary.size(),
+        () -> new PriorityQueue<>(WEAKEST_DAY_FIRST), (heap, code) -> {
+          String farmId = dictionary.nameOf(code);
+          store.read(code, column -> offerTopDays(column, farmId, startDay,
+              endDay, k, heap, scanned));
+        }, (left, right) -> {
+          for (Farm farm : right) {
+            offerTopDay(farm, k, left);
+          }
+          return left;
+        });
+    LinkedList<Farm> farms = new LinkedList<>();
+    while (!top.isEmpty()) {
+      farms.addFirst(top.poll());
+    }
+    event.countRecords(() -> null == scanned ? 0 : scanned.sum());
+    return farms;
+  }
+
+  /**
+   * offer the records of one farm in the range to the heap of the heaviest k records, months whose
+   * max weight can not enter the heap are not scanned
+   *
+   * @param scanned counts the scanned records if not null
+   */
+  private static void offerTopDays(FarmColumn column, String farmId,
+      int startDay, int endDay, int k, PriorityQueue<Farm> top,
+      LongAdder scanned) {
+    if (0 == column.size() || 0 == k) {
+      return;
+    }
+    int fromDay = Math.max(startDay, column.dayAt(0));
+    int toDay = Math.min(endDay, column.dayAt(column.size() - 1));
+    if (fromDay > toDay) {
+      return;
+    }
+    // the months of the range by their max weight, a key holds the max and the month
+    MonthlyRollup rollup = column.getRollup();
+    int firstMonth = Util.monthIndexOf(fromDay);
+    int lastMonth = Util.monthIndexOf(toDay);
+    long[] months = new long[lastMonth - firstMonth + 1];
+    int monthCount = 0;
+    for (int monthIndex = firstMonth; monthIndex <= lastMonth; monthIndex++) {
+      int year = Math.floorDiv(monthIndex, 12);
+      int month = Math.floorMod(monthIndex, 12) + 1;
+      if (rollup.getCount(year, month) > 0) {
+        months[monthCount++] = ((long) rollup.getMax(year, month)
+            - Integer.MIN_VALUE) << 32 | (monthIndex - firstMonth);
+      }
+    }
+    Arrays.sort(months, 0, monthCount);
+    for (int m = monthCount - 1; m >= 0; m--) {
+      int max = (int) ((months[m] >>> 32) + Integer.MIN_VALUE);
+      if (top.size() == k && max < top.peek().getWeight()) {
+        break;
+      }
+      int monthIndex = firstMonth + (int) (months[m] & 0xffffffffL);
+      int last = Math.min(toDay, Util.monthStartOf(monthIndex + 1) - 1);
+      int pos =
+          column.indexOf(Math.max(fromDay, Util.monthStartOf(monthIndex)));
+      int first = pos = pos < 0 ? -pos - 1 : pos;
+      for (; pos < column.size() && column.dayAt(pos) <= last; pos++) {
+        int weight = column.weightAt(pos);
+        if (top.size() < k || weight >= top.peek().getWeight()) {
+          offerTopDay(new Farm(farmId, LocalDate.ofEpochDay(column.dayAt(pos)),
+              weight), k, top);
+        }
+      }
+      if (null != scanned) {
+        scanned.add(pos - first);
+      }
+    }
   }
 
   /**
-   * calculate the min milk weight, max milk weight and average weight and they are called summary of
-   * all given farms by farm
+   * keep the record if it is among the heaviest k records of the heap
+   */
+  private static void offerTopDay(Farm farm, int k, PriorityQueue<Farm> top) {
+    if (top.size() < k) {
+      top.add(farm);
+    } else if (k > 0 && WEAKEST_DAY_FIRST.compare(farm, top.peek()) > 0) {
+      top.poll();
+      top.add(farm);
+    }
+  }
+
+  /**
+   * Find the given percentiles of the daily milk weight of every farm over the date range from the
+   * monthly weight counts of the quantile sketches, the records are not sorted.
    *
-   * @param farms given farm list
-   * @return a map which key is the Farm ID and the value is the summary of the farm.
+   * @param start the inclusive start date
+   * @param end the inclusive end date
+   * @param quantiles quantiles between 0 and 1, such as 0.5, 0.9 and 0.99
+   * @return report of all farms with records in the range sorted by farm id
    */
-  private Map<String, Summary> getSummaryForFarm(List<Farm> farms) {
-    return farms.stream().collect(Collectors.groupingBy(Farm::getId,
-        Collectors.collectingAndThen(Collectors.toList(), l -> {
-          int min = l.stream().mapToInt(Farm::getWeight).min().orElse(0);
-          int max = l.stream().mapToInt(Farm::getWeight).max().orElse(0);
-          double avg =
-              l.stream().mapToDouble(Farm::getWeight).average().orElse(0D);
-          return new Summary(min, max, avg);
-        })));
+  public List<PercentileReport> getPercentileReports(LocalDate start,
+      LocalDate end, double... quantiles) {
+    for (double q : quantiles) {
+      if (!(q >= 0 && q <= 1)) {
+        throw new IllegalArgumentException("Illegal quantile:" + q);
+      }
+    }
+    return report("percentiles", PERCENTILES_LATENCY, () -> "start=" + start
+        + " end=" + end + " quantiles=" + Arrays.toString(quantiles),
+        event -> percentileReports(start, end, quantiles, event));
+  }
+
+  /**
+   * @see #getPercentileReports(LocalDate, LocalDate, double...)
+   */
+  private List<PercentileReport> percentileReports(LocalDate start,
+      LocalDate end, double[] quantiles, FlightEvents.Report event) {
+    MilkStore store = CheeseFactory.getStore();
+    FarmDictionary dictionary = store.getDictionary();
+    int startDay = Util.clampedEpochDayOf(start);
+    int endDay = Util.clampedEpochDayOf(end);
+    PercentileReport[] farmReports = new PercentileReport[dictionary.size()];
+    // each task reuses one sketch for its farms
+    aggregator.reduce(store, farmReports.length, QuantileSketch::new,
+        (sketch, code) -> {
+          sketch.clear();
+          store.read(code, column -> column.sketch(startDay, endDay, sketch));
+          if (0 == sketch.getCount()) {
+            return;
+          }
+          double[] values = new double[quantiles.length];
+          for (int i = 0; i < quantiles.length; i++) {
+            values[i] = sketch.quantile(quantiles[i]);
+          }
+          farmReports[code] = new PercentileReport(dictionary.nameOf(code),
+              (int) sketch.getCount(), quantiles.clone(), values);
+        }, (left, right) -> left);
+    List<PercentileReport> reports = new ArrayList<>();
+    for (PercentileReport report : farmReports) {
+      if (null != report) {
+        reports.add(report);
+      }
+    }
+    reports.sort(Comparator.comparing(PercentileReport::getFarmId));
+    event.countRecords(() -> {
+      long records = 0;
+      for (PercentileReport report : reports) {
+        records += report.getCount();
+      }
+      return records;
+    });
+    return reports;
+  }
+
+  /**
+   * run the body of a report timed into its latency histogram and recorded as a flight recorder
+   * event, the parameters of the event are only built when it is committed
+   *
+   * @param name report name of the event
+   * @param latency latency histogram of the report
+   * @param parameters builds the arguments of the report
+   * @param body generates the report, may hand the event a counter of the records it read
+   * @return the report
+   */
+  private static <T extends List<?>> T report(String name,
+      LatencyHistogram latency, Supplier<String> parameters,
+      Function<FlightEvents.Report, T> body) {
+    long started = Metrics.start();
+    FlightEvents.Report event = new FlightEvents.Report();
+    event.begin();
+    T reports = body.apply(event);
+    latency.recordSince(started);
+    event.finish(name, parameters, reports.size());
+    return reports;
+  }
+
+  /**
+   * Aggregate the given months of a year from the monthly rollups of all farms, the records
+   * themselves are not scanned.
+   *
+   * @param year given year
+   * @param firstMonth the inclusive first month
+   * @param lastMonth the inclusive last month
+   * @return aggregates of all farms over those months indexed by farm code
+   */
+  private RangeStats[] getRollupStats(int year, int firstMonth,
+      int lastMonth) {
+    MilkStore store = CheeseFactory.getStore();
+    RangeStats[] stats = new RangeStats[store.getDictionary().size()];
+    aggregator.forEachFarm(store, stats.length, code -> {
+      RangeStats farmStats = new RangeStats();
+      stats[code] = farmStats;
+      store.read(code, column -> {
+        MonthlyRollup rollup = column.getRollup();
+        for (int month = firstMonth; month <= lastMonth; month++) {
+          int count = rollup.getCount(year, month);
+          if (count > 0) {
+            farmStats.add(rollup.getSum(year, month), count,
+                rollup.getMin(year, month), rollup.getMax(year, month));
+          }
+        }
+      });
+    });
+    return stats;
+  }
+
+  /**
+   * @param stats aggregates indexed by farm code
+   * @return the number of records of all aggregates
+   */
+  private static long countOf(RangeStats[] stats) {
+    long count = 0;
+    for (RangeStats farmStats : stats) {
+      count += farmStats.getCount();
+    }
+    return count;
   }
 
   /**
-   * Generate the report for the date range(annually, monthly, date range). The report consists of the
+   * Generate the report of all farms with records from their aggregates. The report consists of the
    * total milk weight, percent of the total of all farm, min milk weight, max milk weight and average
-   * weight of all farms by farm over that date range.
+   * weight of each farm.
    *
-   * @param farms given farms
-   * @param summaryMap summary information for all farms
+   * @param stats aggregates indexed by farm code
    * @param sortedBy given sorted field
    * @param asc a boolean value indicates ascending or descending
-   * @return report of all farms by farm over that date range sorted by given field and order.
+   * @return report of all farms by farm sorted by given field and order.
    */
-  private List<DateRangeReport> getDateRangeReports(List<Farm> farms,
-      Map<String, Summary> summaryMap, FiledType sortedBy, boolean asc) {
-    double total = farms.stream().mapToDouble(Farm::getWeight).sum();
-    Map<String, Integer> farmWeightMap = farms.stream().collect(Collectors
-        .groupingBy(Farm::getId, Collectors.summingInt(Farm::getWeight)));
-
+  private List<DateRangeReport> toReports(RangeStats[] stats,
+      FiledType sortedBy, boolean asc) {
+    FarmDictionary dictionary = CheeseFactory.getStore().getDictionary();
+    double total = 0;
+    for (RangeStats farmStats : stats) {
+      total += farmStats.getSum();
+    }
     List<DateRangeReport> reports = new ArrayList<>();
-    farmWeightMap.forEach((farmId, weight) -> {
-      double percent = weight / total * 100;
-      reports.add(
-          new DateRangeReport(farmId, weight, percent, summaryMap.get(farmId)));
-    });
+    for (int code = 0; code < stats.length; code++) {
+      RangeStats farmStats = stats[code];
+      if (0 == farmStats.getCount()) {
+        continue;
+      }
+      reports.add(toReport(dictionary.nameOf(code), farmStats, total));
+    }
+    sortReports(reports, sortedBy, asc);
+    return reports;
+  }
+
+  /**
+   * @param farmId given farm
+   * @param farmStats aggregates of the farm, with records
+   * @param total total weight of all farms
+   * @return report of the farm
+   */
+  private DateRangeReport toReport(String farmId, RangeStats farmStats,
+      double total) {
+    int weight = (int) farmStats.getSum();
+    double percent = weight / total * 100;
+    return new DateRangeReport(farmId, weight, percent,
+        new Summary(farmStats.getMin(), farmStats.getMax(),
+            (double) farmStats.getSum() / farmStats.getCount()));
+  }
+
+  /**
+   * sort the reports by farm id or total weight
+   *
+   * @param reports given reports
+   * @param sortedBy given sorted field
+   * @param asc a boolean value indicates ascending or descending
+   */
+  private void sortReports(List<DateRangeReport> reports, FiledType sortedBy,
+      boolean asc) {
     if (asc) {
       if (FiledType.ID == sortedBy) {
         reports.sort(Comparator.comparing(DateRangeReport::getFarmId));
@@ -279,7 +722,18 @@ public class DataManager {
             Comparator.comparing(DateRangeReport::getTotalWeight).reversed());
       }
     }
-    return reports;
+  }
+
+  /**
+   * look at the monthly rollup of the farm while no writer can change it
+   *
+   * @param farmId given farm
+   * @param reader called with the rollup, not called if the farm has no records
+   */
+  private void readRollup(String farmId, Consumer<MonthlyRollup> reader) {
+    MilkStore store = CheeseFactory.getStore();
+    int code = store.getDictionary().codeOf(farmId);
+    store.read(code, column -> reader.accept(column.getRollup()));
   }
 
   /**
@@ -361,4 +815,40 @@ public class DataManager {
     }
   }
 
+  /**
+   * The object struct is used to store the percentiles of the daily weight of one farm
+   */
+  protected static class PercentileReport {
+    private String farmId;
+    private int count;
+    private double[] quantiles;
+    private double[] values;
+
+    public PercentileReport(String farmId, int count, double[] quantiles,
+        double[] values) {
+      this.farmId = farmId;
+      this.count = count;
+      this.quantiles = quantiles;
+      this.values = values;
+    }
+
+    public String getFarmId() {
+      return farmId;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public double[] getQuantiles() {
+      return quantiles;
+    }
+
+    /**
+     * @return the weight at each quantile
+     */
+    public double[] getValues() {
+      return values;
+    }
+  }
 }
@@ -0,0 +1,204 @@
+package application;
+
+/**
+ * Day-indexed range index of one farm. Days are grouped in blocks of 32; a Fenwick tree keeps the
+ * prefix sums of weight and record count per block and a segment tree keeps the min and max weight
+ * per block. A range query reads the whole blocks from the trees in O(log days) and scans the
+ * records of the two partial blocks at its ends.
+ */
+
+import java.util.Arrays;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class DayRangeIndex {
+
+  private static final int BLOCK_SHIFT = 5;
+  // room for about a year of new records after the last indexed day
+  private static final int SPARE_BLOCKS = 12;
+
+  private int firstBlock;
+  private int leaves;
+  // Fenwick trees, 1-based
+  private long[] sumTree;
+  private int[] countTree;
+  // segment trees, leaf i at leaves + i
+  private int[] minTree;
+  private int[] maxTree;
+  private RangeStats scratch = new RangeStats();
+
+  /**
+   * build the index over all records of the column
+   *
+   * @param column given non-empty farm column
+   */
+  public DayRangeIndex(FarmColumn column) {
+    firstBlock = column.dayAt(0) >> BLOCK_SHIFT;
+    int blocks =
+        (column.dayAt(column.size() - 1) >> BLOCK_SHIFT) - firstBlock + 1;
+    leaves = Integer.highestOneBit(blocks + SPARE_BLOCKS - 1) << 1;
+    sumTree = new long[leaves + 1];
+    countTree = new int[leaves + 1];
+    minTree = new int[2 * leaves];
+    maxTree = new int[2 * leaves];
+    Arrays.fill(minTree, Integer.MAX_VALUE);
+    Arrays.fill(maxTree, Integer.MIN_VALUE);
+    for (int i = 0; i < column.size(); i++) {
+      int block = (column.dayAt(i) >> BLOCK_SHIFT) - firstBlock;
+      int weight = column.weightAt(i);
+      sumTree[block + 1] += weight;
+      countTree[block + 1]++;
+      minTree[leaves + block] = Math.min(minTree[leaves + block], weight);
+      maxTree[leaves + block] = Math.max(maxTree[leaves + block], weight);
+    }
+    // linear Fenwick construction: push every node into its parent
+    for (int i = 1; i <= leaves; i++) {
+      int parent = i + (i & -i);
+      if (parent <= leaves) {
+        sumTree[parent] += sumTree[i];
+        countTree[parent] += countTree[i];
+      }
+    }
+    for (int node = leaves - 1; node > 0; node--) {
+      minTree[node] = Math.min(minTree[2 * node], minTree[2 * node + 1]);
+      maxTree[node] = Math.max(maxTree[2 * node], maxTree[2 * node + 1]);
+    }
+  }
+
+  /**
+   * @param day epoch day
+   * @return true if the day falls into the indexed blocks
+   */
+  public boolean covers(int day) {
+    int block = (day >> BLOCK_SHIFT) - firstBlock;
+    return block >= 0 && block < leaves;
+  }
+
+  /**
+   * account a new record, the day must be covered
+   */
+  public void add(int day, int weight) {
+    int block = (day >> BLOCK_SHIFT) - firstBlock;
+    addToBlock(block, weight, 1);
+    int node = leaves + block;
+    if (weight < minTree[node] || weight > maxTree[node]) {
+      setMinMax(block, Math.min(minTree[node], weight),
+          Math.max(maxTree[node], weight));
+    }
+  }
+
+  /**
+   * account a removed record, the column must already be without it
+   */
+  public void remove(int day, int weight, FarmColumn column) {
+    int block = (day >> BLOCK_SHIFT) - firstBlock;
+    addToBlock(block, -weight, -1);
+    int node = leaves + block;
+    if (weight == minTree[node] || weight == maxTree[node]) {
+      rescanBlock(block, column);
+    }
+  }
+
+  /**
+   * account a record whose weight changed, the column must already hold the new weight
+   */
+  public void replace(int day, int oldWeight, int newWeight,
+      FarmColumn column) {
+    int block = (day >> BLOCK_SHIFT) - firstBlock;
+    addToBlock(block, (long) newWeight - oldWeight, 0);
+    int node = leaves + block;
+    if (oldWeight == minTree[node] || oldWeight == maxTree[node]) {
+      rescanBlock(block, column);
+    } else if (newWeight < minTree[node] || newWeight > maxTree[node]) {
+      setMinMax(block, Math.min(minTree[node], newWeight),
+          Math.max(maxTree[node], newWeight));
+    }
+  }
+
+  /**
+   * account all records of the column between the two days into the stats
+   *
+   * @param fromDay the inclusive first epoch day
+   * @param toDay the inclusive last epoch day
+   * @param column the indexed column
+   * @param stats receiver of the aggregates
+   */
+  public void query(int fromDay, int toDay, FarmColumn column,
+      RangeStats stats) {
+    int fromBlock = fromDay >> BLOCK_SHIFT;
+    int toBlock = toDay >> BLOCK_SHIFT;
+    if (toBlock - fromBlock < 2) {
+      column.scan(fromDay, toDay, stats);
+      return;
+    }
+    // partial blocks at both ends
+    column.scan(fromDay, ((fromBlock + 1) << BLOCK_SHIFT) - 1, stats);
+    column.scan(toBlock << BLOCK_SHIFT, toDay, stats);
+    // whole blocks in between, clamped to the indexed blocks
+    int first = Math.max(fromBlock + 1 - firstBlock, 0);
+    int last = Math.min(toBlock - 1 - firstBlock, leaves - 1);
+    if (first > last) {
+      return;
+    }
+    long sum = prefixSum(last + 1) - prefixSum(first);
+    int count = prefixCount(last + 1) - prefixCount(first);
+    if (count > 0) {
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      for (int lo = first + leaves, hi = last + leaves + 1; lo < hi;
+          lo >>= 1, hi >>= 1) {
+        if (1 == (lo & 1)) {
+          min = Math.min(min, minTree[lo]);
+          max = Math.max(max, maxTree[lo++]);
+        }
+        if (1 == (hi & 1)) {
+          min = Math.min(min, minTree[--hi]);
+          max = Math.max(max, maxTree[hi]);
+        }
+      }
+      stats.add(sum, count, min, max);
+    }
+  }
+
+  private void addToBlock(int block, long weight, int count) {
+    for (int i = block + 1; i <= leaves; i += i & -i) {
+      sumTree[i] += weight;
+      countTree[i] += count;
+    }
+  }
+
+  private long prefixSum(int blocks) {
+    long sum = 0;
+    for (int i = blocks; i > 0; i -= i & -i) {
+      sum += sumTree[i];
+    }
+    return sum;
+  }
+
+  private int prefixCount(int blocks) {
+    int count = 0;
+    for (int i = blocks; i > 0; i -= i & -i) {
+      count += countTree[i];
+    }
+    return count;
+  }
+
+  private void rescanBlock(int block, FarmColumn column) {
+    RangeStats stats = scratch;
+    stats.clear();
+    int firstDay = (firstBlock + block) << BLOCK_SHIFT;
+    column.scan(firstDay, firstDay + (1 << BLOCK_SHIFT) - 1, stats);
+    setMinMax(block, stats.getMin(), stats.getMax());
+  }
+
+  private void setMinMax(int block, int min, int max) {
+    int node = leaves + block;
+    minTree[node] = min;
+    maxTree[node] = max;
+    for (node >>= 1; node > 0; node >>= 1) {
+      minTree[node] = Math.min(minTree[2 * node], minTree[2 * node + 1]);
+      maxTree[node] = Math.max(maxTree[2 * node], maxTree[2 * node + 1]);
+    }
+  }
+}
@@ -0,0 +1,379 @@
+package application;
+
+/**
+ * Columnar storage of all the records of one farm, sorted by day. A column is not synchronized, the
+ * store guards it with the lock stripe of its farm.
+ *
+ * The arrays can be shared with snapshots: appending writes past the size a snapshot has seen and
+ * stays in place, any other change of a shared column copies the arrays first.
+ */
+
+import java.util.Arrays;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class FarmColumn {
+
+  private static final int INITIAL_CAPACITY = 32;
+
+  private int[] days;
+  private int[] weights;
+  private int size;
+  // true while a snapshot references the arrays
+  private boolean shared;
+  private MonthlyRollup rollup;
+  // built by the first range query, then kept up to date by every mutation
+  private volatile DayRangeIndex rangeIndex;
+  // built by the first percentile query, then kept up to date by every mutation
+  private volatile MonthlySketches sketches;
+
+  public FarmColumn() {
+    days = new int[INITIAL_CAPACITY];
+    weights = new int[INITIAL_CAPACITY];
+    rollup = new MonthlyRollup();
+  }
+
+  /**
+   * binary search the given day in the column
+   *
+   * @param day given epoch day
+   * @return the position of the day if exists, otherwise (-(insertion point) - 1)
+   */
+  public int indexOf(int day) {
+    // records are mostly loaded in date order, so check the tail first
+    if (0 == size || days[size - 1] < day) {
+      return -size - 1;
+    }
+    return Arrays.binarySearch(days, 0, size, day);
+  }
+
+  /**
+   * insert a record at the given position, the caller keeps the column sorted by day
+   *
+   * @param pos insertion point returned by indexOf
+   * @param day epoch day
+   * @param weight milk weight
+   */
+  public void insertAt(int pos, int day, int weight) {
+    if (size == days.length) {
+      int capacity = size + (size >> 1);
+      days = Arrays.copyOf(days, capacity);
+      weights = Arrays.copyOf(weights, capacity);
+      shared = false;
+    }
+    if (pos < size) {
+      unshare();
+      System.arraycopy(days, pos, days, pos + 1, size - pos);
+      System.arraycopy(weights, pos, weights, pos + 1, size - pos);
+    }
+    days[pos] = day;
+    weights[pos] = weight;
+    size++;
+    rollup.add(day, weight);
+    if (null != rangeIndex) {
+      if (rangeIndex.covers(day)) {
+        rangeIndex.add(day, weight);
+      } else {
+        rangeIndex = null;
+      }
+    }
+    if (null != sketches) {
+      sketches.add(day, weight);
+    }
+  }
+
+  /**
+   * merge records sorted by day into the column in one pass. A row whose day the column or an
+   * earlier row already has is skipped and counted; the inserted rows are moved to the front of the
+   * arrays.
+   *
+   * @param newDays epoch days in non-decreasing order
+   * @param newWeights milk weights
+   * @param count the number of rows
+   * @param result receiver of the duplicate and conflict counts
+   * @return the number of inserted rows
+   */
+  public int merge(int[] newDays, int[] newWeights, int count,
+      BatchResult result) {
+    int kept = 0;
+    // the day and weight of the record kept for the day of the last row
+    int knownDay = 0;
+    int knownWeight = 0;
+    for (int i = 0, pos = 0; i < count; i++) {
+      int day = newDays[i];
+      int weight = newWeights[i];
+      if (i > 0 && day == knownDay) {
+        result.addDuplicate(knownWeight == weight);
+        continue;
+      }
+      // the rows are sorted, so the search resumes where the last one ended
+      int found = pos < size && days[size - 1] >= day
+          ? Arrays.binarySearch(days, pos, size, day) : -size - 1;
+      pos = found < 0 ? -found - 1 : found;
+      knownDay = day;
+      if (found >= 0) {
+        knownWeight = weights[pos];
+        result.addDuplicate(knownWeight == weight);
+      } else {
+        knownWeight = weight;
+        newDays[kept] = day;
+        newWeights[kept] = weight;
+        kept++;
+      }
+    }
+    if (0 == kept) {
+      return 0;
+    }
+    int total = size + kept;
+    if (0 == size || days[size - 1] < newDays[0]) {
+      // appending leaves the records a snapshot has seen in place
+      if (total > days.length) {
+        int capacity = Math.max(total, size + (size >> 1));
+        days = Arrays.copyOf(days, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+        shared = false;
+      }
+      System.arraycopy(newDays, 0, days, size, kept);
+      System.arraycopy(newWeights, 0, weights, size, kept);
+    } else {
+      // merge from the back into arrays sized for all records
+      int[] mergedDays = total > days.length || shared
+          ? new int[Math.max(total, days.length)] : days;
+      int[] mergedWeights =
+          mergedDays == days ? weights : new int[mergedDays.length];
+      int i = size - 1;
+      int j = kept - 1;
+      for (int k = total - 1; j >= 0; k--) {
+        if (i >= 0 && days[i] > newDays[j]) {
+          mergedDays[k] = days[i];
+          mergedWeights[k] = weights[i--];
+        } else {
+          mergedDays[k] = newDays[j];
+          mergedWeights[k] = newWeights[j--];
+        }
+      }
+      if (mergedDays != days) {
+        System.arraycopy(days, 0, mergedDays, 0, i + 1);
+        System.arraycopy(weights, 0, mergedWeights, 0, i + 1);
+        days = mergedDays;
+        weights = mergedWeights;
+        shared = false;
+      }
+    }
+    size = total;
+    DayRangeIndex index = rangeIndex;
+    if (null != index && !(index.covers(newDays[0])
+        && index.covers(newDays[kept - 1]))) {
+      rangeIndex = null;
+      index = null;
+    }
+    for (int k = 0; k < kept; k++) {
+      rollup.add(newDays[k], newWeights[k]);
+      if (null != index) {
+        index.add(newDays[k], newWeights[k]);
+      }
+      if (null != sketches) {
+        sketches.add(newDays[k], newWeights[k]);
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * @param pos position of the removed record
+   */
+  public void removeAt(int pos) {
+    int day = days[pos];
+    int weight = weights[pos];
+    int moved = size - pos - 1;
+    unshare();
+    if (moved > 0) {
+      System.arraycopy(days, pos + 1, days, pos, moved);
+      System.arraycopy(weights, pos + 1, weights, pos, moved);
+    }
+    size--;
+    if (rollup.remove(day, weight)) {
+      rebuildMinMax(Util.monthIndexOf(day));
+    }
+    if (null != rangeIndex) {
+      rangeIndex.remove(day, weight, this);
+    }
+    if (null != sketches) {
+      sketches.remove(day, weight);
+    }
+  }
+
+  public int dayAt(int pos) {
+    return days[pos];
+  }
+
+  public int weightAt(int pos) {
+    return weights[pos];
+  }
+
+  public void setWeightAt(int pos, int weight) {
+    int oldWeight = weights[pos];
+    unshare();
+    weights[pos] = weight;
+    if (rollup.replace(days[pos], oldWeight, weight)) {
+      rebuildMinMax(Util.monthIndexOf(days[pos]));
+    }
+    if (null != rangeIndex) {
+      rangeIndex.replace(days[pos], oldWeight, weight, this);
+    }
+    if (null != sketches) {
+      sketches.replace(days[pos], oldWeight, weight);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * hand the arrays out to a snapshot, the first size records of them never change afterwards
+   */
+  void share() {
+    shared = true;
+  }
+
+  int[] getDays() {
+    return days;
+  }
+
+  int[] getWeights() {
+    return weights;
+  }
+
+  /**
+   * @return the monthly aggregates of this farm, kept up to date by every mutation
+   */
+  public MonthlyRollup getRollup() {
+    return rollup;
+  }
+
+  /**
+   * account all records between the two days into the stats using the range index
+   *
+   * @param fromDay the inclusive first epoch day
+   * @param toDay the inclusive last epoch day
+   * @param stats receiver of the aggregates
+   */
+  public void aggregate(int fromDay, int toDay, RangeStats stats) {
+    if (0 == size || fromDay > toDay) {
+      return;
+    }
+    DayRangeIndex index = rangeIndex;
+    if (null == index) {
+      // several readers may hold the read lock, only one of them builds the index
+      synchronized (this) {
+        index = rangeIndex;
+        if (null == index) {
+          index = new DayRangeIndex(this);
+          rangeIndex = index;
+        }
+      }
+    }
+    index.query(fromDay, toDay, this, stats);
+  }
+
+  /**
+   * account all records between the two days into the quantile sketch, whole months are merged from
+   * the monthly sketches
+   *
+   * @param fromDay the inclusive first epoch day
+   * @param toDay the inclusive last epoch day
+   * @param sketch receiver of the records
+   */
+  public void sketch(int fromDay, int toDay, QuantileSketch sketch) {
+    if (0 == size || fromDay > toDay) {
+      return;
+    }
+    MonthlySketches monthly = sketches;
+    if (null == monthly) {
+      synchronized (this) {
+        monthly = sketches;
+        if (null == monthly) {
+          monthly = new MonthlySketches(this);
+          sketches = monthly;
+        }
+      }
+    }
+    // clip the range to the records so an open range does not walk empty months
+    fromDay = Math.max(fromDay, days[0]);
+    toDay = Math.min(toDay, days[size - 1]);
+    for (int monthIndex = Util.monthIndexOf(fromDay);
+        monthIndex <= Util.monthIndexOf(toDay) && fromDay <= toDay;
+        monthIndex++) {
+      int monthStart = Util.monthStartOf(monthIndex);
+      int monthEnd = Util.monthStartOf(monthIndex + 1) - 1;
+      if (fromDay <= monthStart && monthEnd <= toDay) {
+        QuantileSketch month = monthly.get(monthIndex);
+        if (null != month) {
+          sketch.merge(month);
+        }
+        continue;
+      }
+      int from = indexOf(Math.max(fromDay, monthStart));
+      from = from < 0 ? -from - 1 : from;
+      int to = indexOf(Math.min(toDay, monthEnd) + 1);
+      sketch.addAll(weights, from, to < 0 ? -to - 1 : to);
+    }
+  }
+
+  /**
+   * account all records between the two days into the stats by scanning them
+   *
+   * @param fromDay the inclusive first epoch day
+   * @param toDay the inclusive last epoch day
+   * @param stats receiver of the aggregates
+   */
+  public void scan(int fromDay, int toDay, RangeStats stats) {
+    if (0 == size || fromDay > toDay) {
+      return;
+    }
+    // the days are sorted, so the range is a slice of the weights
+    int from = indexOf(fromDay);
+    from = from < 0 ? -from - 1 : from;
+    int to = Arrays.binarySearch(days, from, size, toDay);
+    to = to < 0 ? -to - 1 : to + 1;
+    WeightKernels.aggregate(weights, from, to, stats);
+  }
+
+  /**
+   * copy the arrays if a snapshot references them, so the records it has seen stay unchanged
+   */
+  private void unshare() {
+    if (shared) {
+      days = days.clone();
+      weights = weights.clone();
+      shared = false;
+    }
+  }
+
+  /**
+   * rescan the records of one month to find its min and max after the old one was removed or
+   * lowered
+   *
+   * @param monthIndex year * 12 + month - 1
+   */
+  private void rebuildMinMax(int monthIndex) {
+    int from = indexOf(Util.monthStartOf(monthIndex));
+    int to = indexOf(Util.monthStartOf(monthIndex + 1));
+    from = from < 0 ? -from - 1 : from;
+    to = to < 0 ? -to - 1 : to;
+    int min = from;
+    int max = from;
+    for (int i = from + 1; i < to; i++) {
+      if (weights[i] < weights[min]) {
+        min = i;
+      }
+      if (weights[i] > weights[max]) {
+        max = i;
+      }
+    }
+    rollup.resetMinMax(monthIndex, weights[min], days[min], weights[max],
+        days[max]);
+  }
+}
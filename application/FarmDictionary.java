@@ -0,0 +1,171 @@
+package application;
+
+/**
+ * Interns farm ids into dense int codes so the store never keeps one id string per record. Lookups by
+ * string are lock-free, assigning a new code and lookups by bytes are synchronized.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class FarmDictionary {
+
+  private Map<String, Integer> codes;
+  private volatile String[] names;
+  private volatile int size;
+  // open addressing table over the UTF-8 bytes of the names, slot value is code + 1
+  private byte[][] nameBytes;
+  private int[] hashes;
+  private int[] table;
+
+  public FarmDictionary() {
+    codes = new ConcurrentHashMap<>();
+    names = new String[16];
+    nameBytes = new byte[16][];
+    hashes = new int[16];
+    table = new int[32];
+  }
+
+  /**
+   * get the code of the given farm id, assign a new code if the id has not been seen before
+   *
+   * @param farmId given farm id
+   * @return the code of the farm id, from 0 to size() - 1
+   */
+  public int intern(String farmId) {
+    Integer code = codes.get(farmId);
+    if (null != code) {
+      return code;
+    }
+    synchronized (this) {
+      code = codes.get(farmId);
+      if (null != code) {
+        return code;
+      }
+      byte[] bytes = farmId.getBytes(StandardCharsets.UTF_8);
+      return add(farmId, bytes, hash(bytes, 0, bytes.length));
+    }
+  }
+
+  /**
+   * get the code of the farm id encoded in UTF-8 in the given range of the buffer, assign a new code
+   * if the id has not been seen before. Only a new farm id allocates a string.
+   *
+   * @param buf given buffer
+   * @param offset offset of the first byte
+   * @param length number of bytes
+   * @return the code of the farm id, from 0 to size() - 1
+   */
+  public synchronized int intern(byte[] buf, int offset, int length) {
+    int hash = hash(buf, offset, length);
+    int mask = table.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      int code = table[slot] - 1;
+      if (code < 0) {
+        break;
+      }
+      if (hashes[code] == hash
+          && matches(nameBytes[code], buf, offset, length)) {
+        return code;
+      }
+    }
+    byte[] bytes = Arrays.copyOfRange(buf, offset, offset + length);
+    String farmId = new String(bytes, StandardCharsets.UTF_8);
+    Integer code = codes.get(farmId);
+    if (null != code) {
+      // same id with a different byte encoding, e.g. malformed UTF-8
+      return code;
+    }
+    return add(farmId, bytes, hash);
+  }
+
+  /**
+   * @param farmId given farm id
+   * @return the code of the farm id or -1 if the id has never been interned
+   */
+  public int codeOf(String farmId) {
+    Integer code = codes.get(farmId);
+    return null == code ? -1 : code;
+  }
+
+  /**
+   * @param code given code
+   * @return the farm id of the code
+   */
+  public String nameOf(int code) {
+    return names[code];
+  }
+
+  /**
+   * @return the number of interned farm ids
+   */
+  public int size() {
+    return size;
+  }
+
+  public synchronized void clear() {
+    codes.clear();
+    Arrays.fill(names, 0, size, null);
+    Arrays.fill(nameBytes, 0, size, null);
+    Arrays.fill(table, 0);
+    size = 0;
+  }
+
+  private int add(String farmId, byte[] bytes, int hash) {
+    if (size == names.length) {
+      nameBytes = Arrays.copyOf(nameBytes, size * 2);
+      hashes = Arrays.copyOf(hashes, size * 2);
+      String[] grown = Arrays.copyOf(names, size * 2);
+      grown[size] = farmId;
+      names = grown;
+    } else {
+      names[size] = farmId;
+    }
+    nameBytes[size] = bytes;
+    hashes[size] = hash;
+    codes.put(farmId, size);
+    if (2 * (size + 1) > table.length) {
+      table = new int[table.length * 2];
+      for (int code = 0; code < size; code++) {
+        place(code);
+      }
+    }
+    place(size);
+    return size++;
+  }
+
+  private void place(int code) {
+    int mask = table.length - 1;
+    int slot = hashes[code] & mask;
+    while (0 != table[slot]) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = code + 1;
+  }
+
+  private static boolean matches(byte[] bytes, byte[] buf, int offset,
+      int length) {
+    if (bytes.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (bytes[i] != buf[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hash(byte[] buf, int offset, int length) {
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + buf[offset + i];
+    }
+    return hash ^ (hash >>> 16);
+  }
+}
@@ -0,0 +1,64 @@
+package application;
+
+/**
+ * Mutable cursor over one parsed data row, reused for every row so parsing allocates nothing
+ */
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class FarmRecord {
+
+  /**
+   * The reason a row was rejected
+   */
+  public enum ParseError {
+    NONE(""), MISSING_FIELD("Missing farm information"), ILLEGAL_DATE(
+        "Illegal date value"), ILLEGAL_WEIGHT("Illegal int value");
+
+    private String message;
+
+    ParseError(String message) {
+      this.message = message;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+  }
+
+  int farmCode;
+  int day;
+  int weight;
+  int lineNumber;
+  ParseError error = ParseError.NONE;
+
+  /**
+   * @return the code of the farm id in the dictionary the row was parsed with
+   */
+  public int getFarmCode() {
+    return farmCode;
+  }
+
+  /**
+   * @return the epoch day of the row
+   */
+  public int getDay() {
+    return day;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+
+  /**
+   * @return the line number of the row in its file, starting at 1
+   */
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  public ParseError getError() {
+    return error;
+  }
+}
@@ -0,0 +1,265 @@
+package application;
+
+/**
+ * Streaming parser for "yyyy-M-d,FarmID,Weight" rows. It scans the bytes in place, decodes every
+ * field straight into a reused FarmRecord and interns farm ids into a dictionary, so a row costs no
+ * allocation and an illegal row is counted instead of thrown.
+ */
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class FarmRecordParser {
+
+  private FarmDictionary dictionary;
+  private FarmRecord record;
+  private int lineNumber;
+  private int rows;
+  private int rejected;
+  private int firstErrorLine;
+  private FarmRecord.ParseError firstError;
+  private int cachedYear = -1;
+  private int cachedMonth;
+  private int cachedMonthStart;
+  private int cachedMonthLength;
+
+  /**
+   * @param dictionary the dictionary farm ids are interned into
+   */
+  public FarmRecordParser(FarmDictionary dictionary) {
+    this.dictionary = dictionary;
+    this.record = new FarmRecord();
+    this.firstError = FarmRecord.ParseError.NONE;
+  }
+
+  /**
+   * Receives every legal row. The record is reused, so the sink must copy what it keeps.
+   */
+  public interface RecordSink {
+    void accept(FarmRecord record);
+  }
+
+  /**
+   * parse all complete lines in [from, to) of the buffer and pass the legal rows to the sink. Lines
+   * starting with "date" are headers and ignored. Line numbers continue across calls.
+   *
+   * @param buf given buffer
+   * @param from offset of the first byte
+   * @param to offset after the last byte
+   * @param endOfInput true if the last line ends at "to" even without a line break
+   * @param sink receiver of the legal rows
+   * @return the offset after the last consumed line, the remaining bytes are a partial line
+   */
+  public int parse(byte[] buf, int from, int to, boolean endOfInput,
+      RecordSink sink) {
+    int start = from;
+    while (start < to) {
+      int end = start;
+      while (end < to && buf[end] != '\n' && buf[end] != '\r') {
+        end++;
+      }
+      if (end == to && !endOfInput) {
+        break;
+      }
+      int next = end + 1;
+      if (end < to && buf[end] == '\r') {
+        if (next < to && buf[next] == '\n') {
+          next++;
+        } else if (next == to && !endOfInput) {
+          // the '\n' of a "\r\n" may be in the next chunk
+          break;
+        }
+      }
+      lineNumber++;
+      if (!isHeader(buf, start, end)) {
+        if (parseLine(buf, start, end)) {
+          rows++;
+          sink.accept(record);
+        } else {
+          rejected++;
+          if (0 == firstErrorLine) {
+            firstErrorLine = lineNumber;
+            firstError = record.error;
+          }
+        }
+      }
+      start = Math.min(next, to);
+    }
+    return start;
+  }
+
+  /**
+   * decode one line without its line break into the record
+   *
+   * @return true if the line is a legal row
+   */
+  private boolean parseLine(byte[] buf, int from, int to) {
+    FarmRecord r = record;
+    r.lineNumber = lineNumber;
+    // trailing empty fields are dropped like String.split does
+    while (to > from && buf[to - 1] == ',') {
+      to--;
+    }
+    int pos = from;
+    // date: year-month-day, each with an optional plus sign and leading
+    // zeros like Integer.parseInt
+    int year = 0;
+    int month = 0;
+    int day = 0;
+    int digits;
+    int numberStart = pos = skipPlus(buf, pos, to);
+    // at most 4 digits like LocalDate.parse, so the epoch day can not overflow
+    for (pos = skipZeros(buf, pos, to), digits = 0;
+        pos < to && isDigit(buf[pos]) && digits < 4; pos++, digits++) {
+      year = year * 10 + buf[pos] - '0';
+    }
+    if (pos == numberStart || pos >= to || buf[pos++] != '-') {
+      return fail(buf, from, to, FarmRecord.ParseError.ILLEGAL_DATE);
+    }
+    numberStart = pos = skipPlus(buf, pos, to);
+    for (pos = skipZeros(buf, pos, to), digits = 0;
+        pos < to && isDigit(buf[pos]) && digits < 3; pos++, digits++) {
+      month = month * 10 + buf[pos] - '0';
+    }
+    if (pos == numberStart || pos >= to || buf[pos++] != '-') {
+      return fail(buf, from, to, FarmRecord.ParseError.ILLEGAL_DATE);
+    }
+    numberStart = pos = skipPlus(buf, pos, to);
+    for (pos = skipZeros(buf, pos, to), digits = 0;
+        pos < to && isDigit(buf[pos]) && digits < 3; pos++, digits++) {
+      day = day * 10 + buf[pos] - '0';
+    }
+    boolean hasDay = pos > numberStart;
+    if (pos < to && buf[pos] == '-') {
+      // the date parts after the day are ignored like in Util.parseAsDate
+      while (pos < to && buf[pos] != ',') {
+        pos++;
+      }
+    }
+    if (year != cachedYear || month != cachedMonth) {
+      if (month < 1 || month > 12) {
+        return fail(buf, from, to, FarmRecord.ParseError.ILLEGAL_DATE);
+      }
+      // rows of a file share a few months, cache the first day of the last one
+      cachedYear = year;
+      cachedMonth = month;
+      cachedMonthStart = Util.toEpochDay(year, month, 1);
+      cachedMonthLength = Util.lengthOfMonth(year, month);
+    }
+    if (!hasDay || (pos < to && buf[pos] != ',') || day < 1
+        || day > cachedMonthLength) {
+      return fail(buf, from, to, FarmRecord.ParseError.ILLEGAL_DATE);
+    }
+    if (pos >= to) {
+      return fail(buf, from, to, FarmRecord.ParseError.MISSING_FIELD);
+    }
+    pos++;
+    // farm id
+    int idStart = pos;
+    while (pos < to && buf[pos] != ',') {
+      pos++;
+    }
+    if (pos >= to) {
+      return fail(buf, from, to, FarmRecord.ParseError.MISSING_FIELD);
+    }
+    int idEnd = pos++;
+    // weight, an int with an optional sign
+    boolean negative = false;
+    if (pos < to && (buf[pos] == '-' || buf[pos] == '+')) {
+      negative = buf[pos++] == '-';
+    }
+    long weight = 0;
+    numberStart = pos;
+    for (pos = skipZeros(buf, pos, to), digits = 0;
+        pos < to && isDigit(buf[pos]) && digits < 11; pos++, digits++) {
+      weight = weight * 10 + buf[pos] - '0';
+    }
+    if (pos < to && buf[pos] == ',') {
+      return fail(buf, from, to, FarmRecord.ParseError.MISSING_FIELD);
+    }
+    weight = negative ? -weight : weight;
+    if (pos == numberStart || pos != to || weight > Integer.MAX_VALUE
+        || weight < Integer.MIN_VALUE) {
+      return fail(buf, from, to, FarmRecord.ParseError.ILLEGAL_WEIGHT);
+    }
+    r.farmCode = dictionary.intern(buf, idStart, idEnd - idStart);
+    r.day = cachedMonthStart + day - 1;
+    r.weight = (int) weight;
+    r.error = FarmRecord.ParseError.NONE;
+    return true;
+  }
+
+  /**
+   * classify a rejected line, a line with the wrong number of fields is reported as missing
+   * information before any field value error
+   */
+  private boolean fail(byte[] buf, int from, int to,
+      FarmRecord.ParseError error) {
+    int commas = 0;
+    for (int i = from; i < to; i++) {
+      if (buf[i] == ',') {
+        commas++;
+      }
+    }
+    record.error = 2 == commas ? error : FarmRecord.ParseError.MISSING_FIELD;
+    return false;
+  }
+
+  private static boolean isHeader(byte[] buf, int from, int to) {
+    return to - from >= 4 && (buf[from] | 0x20) == 'd'
+        && (buf[from + 1] | 0x20) == 'a'
+        && (buf[from + 2] | 0x20) == 't'
+        && (buf[from + 3] | 0x20) == 'e';
+  }
+
+  private static int skipPlus(byte[] buf, int pos, int to) {
+    return pos < to && buf[pos] == '+' ? pos + 1 : pos;
+  }
+
+  private static int skipZeros(byte[] buf, int pos, int to) {
+    while (pos < to && buf[pos] == '0') {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  /**
+   * @return the number of legal rows parsed so far
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * @return the number of rejected rows so far
+   */
+  public int getRejected() {
+    return rejected;
+  }
+
+  /**
+   * @return the line number of the first rejected row, 0 if there is none
+   */
+  public int getFirstErrorLine() {
+    return firstErrorLine;
+  }
+
+  public FarmRecord.ParseError getFirstError() {
+    return firstError;
+  }
+
+  /**
+   * @return a message describing the first rejected row, empty if there is none
+   */
+  public String getErrorMessage() {
+    if (0 == rejected) {
+      return "";
+    }
+    return firstError.getMessage() + " at line " + firstErrorLine
+        + (rejected > 1 ? " (" + rejected + " illegal lines)" : "");
+  }
+}
@@ -0,0 +1,319 @@
+package application;
+
+/**
+ * Lazily paged table model over the store. The table only asks for the visible rows, so a row
+ * becomes a Farm when it is shown and the dataset is never copied into the UI. Rows sorted by farm
+ * id (then date) are read from a snapshot through a farm order and prefix counts; rows sorted by
+ * date or weight are paged from the sorted indexes the store maintains. A single added, edited or
+ * removed record is announced as one changed row.
+ */
+
+import javafx.collections.ObservableListBase;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class FarmTableModel extends ObservableListBase<Farm> {
+
+  private static final int PAGE_SIZE = 256;
+
+  private FiledType sortedBy = FiledType.ID;
+  private boolean asc = true;
+  private Rows rows;
+
+  public FarmTableModel() {
+    rows = new Rows(sortedBy, asc);
+  }
+
+  @Override
+  public Farm get(int index) {
+    return rows.get(index);
+  }
+
+  @Override
+  public int size() {
+    return rows.size;
+  }
+
+  /**
+   * reload all rows from the store, used after bulk changes such as a file import
+   */
+  public void refresh() {
+    replaceAll(new Rows(sortedBy, asc));
+  }
+
+  /**
+   * change the order of the rows
+   *
+   * @param field sorted field
+   * @param asc true for ascending
+   */
+  public void sort(FiledType field, boolean asc) {
+    this.sortedBy = field;
+    this.asc = asc;
+    replaceAll(new Rows(field, asc));
+  }
+
+  /**
+   * announce a record that was just added to the store
+   *
+   * @param farm the added record
+   */
+  public void recordInserted(Farm farm) {
+    // a new id order already holds the record, a sorted index gives the row it was added at
+    Rows next = FiledType.ID == sortedBy ? new Rows(sortedBy, asc) : rows;
+    int row = next.rowOf(farm);
+    if (row < 0) {
+      replaceAll(new Rows(sortedBy, asc));
+      return;
+    }
+    if (next == rows) {
+      next.resize(1);
+    }
+    rows = next;
+    beginChange();
+    nextAdd(row, row + 1);
+    endChange();
+  }
+
+  /**
+   * announce a record whose weight was just changed in the store
+   *
+   * @param farm the edited record
+   */
+  public void recordUpdated(Farm farm) {
+    // the old weight is gone, so a row ordered by weight cannot be found at its old place
+    if (FiledType.WEIGHT == sortedBy) {
+      replaceAll(new Rows(sortedBy, asc));
+      return;
+    }
+    Rows next = FiledType.ID == sortedBy ? new Rows(sortedBy, asc) : rows;
+    int row = next.rowOf(farm);
+    if (row < 0) {
+      replaceAll(new Rows(sortedBy, asc));
+      return;
+    }
+    // the page of a sorted view holds the old weight
+    next.resize(0);
+    rows = next;
+    beginChange();
+    nextSet(row, farm);
+    endChange();
+  }
+
+  /**
+   * announce a record that was just removed from the store
+   *
+   * @param farm the removed record
+   */
+  public void recordRemoved(Farm farm) {
+    // the record is still in the id order of the old snapshot, and a sorted index places a removed
+    // record at the row it had
+    int row = rows.rowOf(farm);
+    if (row < 0) {
+      replaceAll(new Rows(sortedBy, asc));
+      return;
+    }
+    if (FiledType.ID == sortedBy) {
+      rows = new Rows(sortedBy, asc);
+    } else {
+      rows.resize(-1);
+    }
+    beginChange();
+    nextRemove(row, farm);
+    endChange();
+  }
+
+  /**
+   * @return the ids of all farms with records, sorted
+   */
+  public String[] getFarmIds() {
+    MilkSnapshot snapshot = CheeseFactory.snapshot();
+    List<String> farmIds = new ArrayList<>();
+    for (int code = 0; code < snapshot.getFarmCount(); code++) {
+      if (snapshot.size(code) > 0) {
+        farmIds.add(snapshot.nameOf(code));
+      }
+    }
+    farmIds.sort(Comparator.naturalOrder());
+    return farmIds.toArray(new String[0]);
+  }
+
+  /**
+   * @return all years with records, sorted
+   */
+  public String[] getYears() {
+    MilkSnapshot snapshot = CheeseFactory.snapshot();
+    TreeSet<Integer> years = new TreeSet<>();
+    for (int code = 0; code < snapshot.getFarmCount(); code++) {
+      // jump from the first record of a year to the first record of the next year
+      for (int pos = 0; pos < snapshot.size(code);) {
+        int year = LocalDate.ofEpochDay(snapshot.dayAt(code, pos)).getYear();
+        years.add(year);
+        int next = snapshot.indexOf(code,
+            (int) LocalDate.of(year + 1, 1, 1).toEpochDay());
+        pos = next < 0 ? -next - 1 : next;
+      }
+    }
+    return years.stream().map(String::valueOf).toArray(String[]::new);
+  }
+
+  private void replaceAll(Rows next) {
+    // a sorted index already holds the new order, so the removed rows of a sorted view are read in
+    // that order; the table only uses how many rows were removed
+    Rows old = rows;
+    rows = next;
+    old.pageStart = -1;
+    beginChange();
+    nextRemove(0, old);
+    nextAdd(0, next.size);
+    endChange();
+  }
+
+  /**
+   * Rows of the table in one order with the last visited page
+   */
+  private static class Rows extends AbstractList<Farm> {
+    private FiledType sortedBy;
+    private boolean asc;
+    // the rows in id order, null when the rows are paged from a sorted index
+    private View view;
+    private int size;
+    private Farm[] page = new Farm[PAGE_SIZE];
+    private int pageStart = -1;
+
+    Rows(FiledType sortedBy, boolean asc) {
+      this.sortedBy = sortedBy;
+      this.asc = asc;
+      if (FiledType.ID == sortedBy) {
+        view = new View(CheeseFactory.snapshot(), asc);
+        size = view.size;
+      } else {
+        size = CheeseFactory.getStore().size();
+      }
+    }
+
+    @Override
+    public Farm get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index);
+      }
+      int start = index - index % PAGE_SIZE;
+      if (start != pageStart) {
+        int end = Math.min(start + PAGE_SIZE, size);
+        if (null != view) {
+          for (int row = start; row < end; row++) {
+            page[row - start] = view.farmAt(row);
+          }
+        } else {
+          Arrays.fill(page, null);
+          MilkStore store = CheeseFactory.getStore();
+          FarmDictionary dictionary = store.getDictionary();
+          int[] row = {0};
+          store.sortedPage(sortedBy, asc, start, end - start,
+              (code, day, weight) -> page[row[0]++] = new Farm(
+                  dictionary.nameOf(code), LocalDate.ofEpochDay(day), weight));
+        }
+        pageStart = start;
+      }
+      return page[index - start];
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    /**
+     * account rows added to or removed from a sorted view
+     */
+    void resize(int delta) {
+      size += delta;
+      pageStart = -1;
+    }
+
+    /**
+     * @return the row of the record, -1 if the farm is unknown or the record is not in an id order
+     */
+    int rowOf(Farm farm) {
+      MilkStore store = CheeseFactory.getStore();
+      int code = store.getDictionary().codeOf(farm.getId());
+      int day = (int) farm.getDate().toEpochDay();
+      if (null != view) {
+        return view.rowOf(code, day);
+      }
+      if (code < 0) {
+        return -1;
+      }
+      return store.sortedRank(sortedBy, asc, code, day, farm.getWeight());
+    }
+  }
+
+  /**
+   * Immutable id order over one snapshot
+   */
+  private static class View {
+    private MilkSnapshot snapshot;
+    // farm codes in id order and the first row of each of them
+    private int[] farmOrder;
+    private int[] farmRank;
+    private int[] starts;
+    private int size;
+
+    View(MilkSnapshot snapshot, boolean asc) {
+      this.snapshot = snapshot;
+      int farmCount = snapshot.getFarmCount();
+      Integer[] codes = new Integer[farmCount];
+      for (int code = 0; code < farmCount; code++) {
+        codes[code] = code;
+      }
+      Comparator<Integer> byName = Comparator.comparing(snapshot::nameOf);
+      Arrays.sort(codes, asc ? byName : byName.reversed());
+      farmOrder = new int[farmCount];
+      farmRank = new int[farmCount];
+      starts = new int[farmCount + 1];
+      for (int k = 0; k < farmCount; k++) {
+        farmOrder[k] = codes[k];
+        farmRank[codes[k]] = k;
+        starts[k + 1] = starts[k] + snapshot.size(codes[k]);
+      }
+      size = starts[farmCount];
+    }
+
+    Farm farmAt(int row) {
+      // the last farm starting at or before the row, empty farms share their start
+      int k = Arrays.binarySearch(starts, row);
+      if (k < 0) {
+        k = -k - 2;
+      }
+      while (k + 1 < starts.length && starts[k + 1] <= row) {
+        k++;
+      }
+      int code = farmOrder[k];
+      int pos = row - starts[k];
+      return new Farm(snapshot.nameOf(code),
+          LocalDate.ofEpochDay(snapshot.dayAt(code, pos)),
+          snapshot.weightAt(code, pos));
+    }
+
+    /**
+     * @return the row of the record, -1 if it does not exist
+     */
+    int rowOf(int code, int day) {
+      // snapshots use the farm codes of the store
+      if (code < 0 || code >= snapshot.getFarmCount()) {
+        return -1;
+      }
+      int pos = snapshot.indexOf(code, day);
+      return pos < 0 ? -1 : starts[farmRank[code]] + pos;
+    }
+  }
+}
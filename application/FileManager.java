@@ -5,7 +5,12 @@ package application;
  */
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -13,6 +18,20 @@ import java.util.List;
  */
 public class FileManager {
 
+  private static final long MAP_WINDOW = 1L << 28;
+  private static final int CHUNK_SIZE = 1 << 16;
+  // rows merged into the store at a time by readIntoStore
+  private static final int STORE_BATCH_SIZE = 1 << 16;
+
+  private static final Metrics.Counter ROWS_PARSED =
+      Metrics.counter("rows.parsed");
+  private static final Metrics.Counter ROWS_REJECTED =
+      Metrics.counter("rows.rejected");
+  private static final Metrics.Counter READ_ERRORS =
+      Metrics.counter("files.readErrors");
+  private static final Metrics.Counter WRITE_ERRORS =
+      Metrics.counter("files.writeErrors");
+
   private List<String> contents;
 
   public FileManager() {
@@ -32,14 +51,14 @@ public class FileManager {
         BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
       String line;
       while (null != (line = reader.readLine())) {
-        if (line.toLowerCase().startsWith("date")) {
+        if (line.regionMatches(true, 0, "date", 0, 4)) {
           continue;
         }
         lines.add(line);
       }
-      contents.clear();
-      contents.addAll(lines);
+      contents = lines;
     } catch (Exception e) {
+      READ_ERRORS.increment();
       e.printStackTrace();
       System.err.println("Read file error, please check file format.");
       return false;
@@ -48,21 +67,99 @@ public class FileManager {
   }
 
   /**
-   * store all the farms into the given file in csv format with header "date,farm_id,weight"
+   * read the data file by mapping it into memory window by window and hand every legal row to the
+   * sink, no string is created per line and the memory used does not depend on the file size. Lines
+   * starting with "date" are ignored and illegal lines are counted by the returned parser.
+   *
+   * @param inputFile data file
+   * @param dictionary dictionary the farm ids are interned into
+   * @param sink receiver of the legal rows
+   * @return the parser holding the row counts and the first error, null when the file can not be
+   *         read
+   */
+  public FarmRecordParser readMapped(File inputFile, FarmDictionary dictionary,
+      FarmRecordParser.RecordSink sink) {
+    FlightEvents.FileImport event = new FlightEvents.FileImport();
+    event.begin();
+    FarmRecordParser parser = new FarmRecordParser(dictionary);
+    try (FileChannel channel =
+        FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)) {
+      long fileSize = channel.size();
+      byte[] chunk = new byte[CHUNK_SIZE];
+      // bytes of a partial line kept at the start of the chunk
+      int pending = 0;
+      for (long position = 0; position < fileSize; position += MAP_WINDOW) {
+        long windowSize = Math.min(MAP_WINDOW, fileSize - position);
+        MappedByteBuffer window =
+            channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+        while (window.hasRemaining()) {
+          if (pending == chunk.length) {
+            chunk = Arrays.copyOf(chunk, chunk.length * 2);
+          }
+          int length = Math.min(chunk.length - pending, window.remaining());
+          window.get(chunk, pending, length);
+          int end = pending + length;
+          boolean last =
+              !window.hasRemaining() && position + windowSize == fileSize;
+          int consumed = parser.parse(chunk, 0, end, last, sink);
+          pending = end - consumed;
+          System.arraycopy(chunk, consumed, chunk, 0, pending);
+        }
+      }
+    } catch (Exception e) {
+      READ_ERRORS.increment();
+      event.finish(inputFile, null);
+      e.printStackTrace();
+      System.err.println("Read file error, please check file format.");
+      return null;
+    }
+    ROWS_PARSED.add(parser.getRows());
+    ROWS_REJECTED.add(parser.getRejected());
+    event.finish(inputFile, parser);
+    return parser;
+  }
+
+  /**
+   * read the data file in mapped mode and merge the legal rows into the CheeseFactory batch by
+   * batch, so the memory used does not depend on the file size. A row is skipped when there is
+   * already a farm for the same farmId and date. The rows read before an error stay inserted.
+   *
+   * @param inputFile data file
+   * @param merged receives the counts of the merged batches
+   * @return the parser holding the row counts and the first error, null when the file can not be
+   *         read
+   */
+  public FarmRecordParser readIntoStore(File inputFile, BatchResult merged) {
+    MilkBatch batch = new MilkBatch(STORE_BATCH_SIZE);
+    FarmRecordParser parser =
+        readMapped(inputFile, batch.getDictionary(), record -> {
+          batch.accept(record);
+          if (STORE_BATCH_SIZE == batch.size()) {
+            merged.add(CheeseFactory.insertBatch(batch));
+            batch.clear();
+          }
+        });
+    merged.add(CheeseFactory.insertBatch(batch));
+    return parser;
+  }
+
+  /**
+   * store all the farms into the given file, in the binary snapshot format when the file name ends
+   * in ".mwb", otherwise in csv format with header "date,farm_id,weight"
    *
    * @param outputFile output file
    * @return true when save successfully, otherwise false
    */
   public boolean writeToFile(File outputFile) {
-    try (PrintWriter writer = new PrintWriter(outputFile)) {
-      writer.println("date,farm_id,weight");
-      List<Farm> farms = CheeseFactory.getFarms();
-      for (Farm farm : farms) {
-        writer.println(String.format("%s,%s,%d", farm.getDate().toString(),
-            farm.getId(), farm.getWeight()));
+    try {
+      if (MilkBinaryFormat.isBinary(outputFile)) {
+        MilkBinaryFormat.write(CheeseFactory.snapshot(), outputFile);
+      } else {
+        new CsvExporter().export(CheeseFactory.snapshot(), outputFile);
       }
       return true;
     } catch (Exception e) {
+      WRITE_ERRORS.increment();
       e.printStackTrace();
       System.err.println("Write file error, please check file.");
       return false;
@@ -70,10 +167,11 @@ public class FileManager {
   }
 
   /**
-   * @return all the contents of the current file
+   * @return an unmodifiable view of all the contents of the current file
    */
   public List<String> getFileContents() {
-    return new ArrayList<>(contents);
+    // readFile replaces the list instead of changing it, so the view needs no copy
+    return Collections.unmodifiableList(contents);
   }
 
 }
@@ -0,0 +1,254 @@
+package application;
+
+/**
+ * Java Flight Recorder events of the work that can stall the application: file imports, batch
+ * inserts, single record changes, reports and binary snapshot saves and loads. A recording shows
+ * them on the same timeline as GC pauses, CPU load and lock contention. The events cost one check
+ * of a flag while they are not recorded; milkweight.jfc in the project root turns them on with
+ * sensible thresholds.
+ */
+
+import java.io.File;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class FlightEvents {
+
+  private static final String CATEGORY = "MilkWeight";
+
+  private FlightEvents() {}
+
+  /**
+   * Reading and parsing one csv file
+   */
+  @Name("milkweight.FileImport")
+  @Label("File Import")
+  @Category({CATEGORY, "Ingest"})
+  @Description("Reading and parsing one csv data file")
+  public static class FileImport extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Rows")
+    @Description("Legal rows handed to the sink")
+    long rows;
+
+    @Label("Rejected Rows")
+    long rejected;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    /**
+     * end the event and commit it with the outcome of the file if it is recorded
+     *
+     * @param inputFile given file
+     * @param parser the parser of the file, null when the file could not be read
+     */
+    void finish(File inputFile, FarmRecordParser parser) {
+      end();
+      if (shouldCommit()) {
+        file = inputFile.getPath();
+        bytes = inputFile.length();
+        succeeded = null != parser;
+        if (succeeded) {
+          rows = parser.getRows();
+          rejected = parser.getRejected();
+        }
+        commit();
+      }
+    }
+  }
+
+  /**
+   * Merging one parsed batch into the store
+   */
+  @Name("milkweight.BatchInsert")
+  @Label("Batch Insert")
+  @Category({CATEGORY, "Ingest"})
+  @Description("Merging one parsed batch into the store")
+  public static class BatchInsert extends Event {
+    @Label("Rows")
+    int rows;
+
+    @Label("Farms")
+    int farms;
+
+    @Label("Inserted")
+    int inserted;
+
+    @Label("Duplicates")
+    int duplicates;
+
+    @Label("Conflicts")
+    int conflicts;
+
+    /**
+     * end the event and commit it with the counts of the merge if it is recorded
+     *
+     * @param batch the merged batch
+     * @param result the counts of the merge
+     */
+    void finish(MilkBatch batch, BatchResult result) {
+      end();
+      if (shouldCommit()) {
+        rows = batch.size();
+        farms = batch.getDictionary().size();
+        inserted = result.getInserted();
+        duplicates = result.getDuplicates();
+        conflicts = result.getConflicts();
+        commit();
+      }
+    }
+  }
+
+  /**
+   * Adding, editing or removing one record, including the wait for the write-ahead log
+   */
+  @Name("milkweight.RecordChange")
+  @Label("Record Change")
+  @Category({CATEGORY, "Store"})
+  @Description("Adding, editing or removing one record, including the write-ahead log sync")
+  public static class RecordChange extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Farm")
+    String farmId;
+
+    @Label("Date")
+    String date;
+
+    @Label("Applied")
+    @Description("False when there was no record to change or one existed already")
+    boolean applied;
+
+    /**
+     * end the event and commit it if it is recorded
+     *
+     * @param operation insert, edit or remove
+     * @param farm the changed farm and date
+     * @param applied true when the store changed
+     */
+    void finish(String operation, Farm farm, boolean applied) {
+      end();
+      if (shouldCommit()) {
+        this.operation = operation;
+        farmId = farm.getId();
+        date = farm.getDate().toString();
+        this.applied = applied;
+        commit();
+      }
+    }
+  }
+
+  /**
+   * One report of the DataManager
+   */
+  @Name("milkweight.Report")
+  @Label("Report")
+  @Category({CATEGORY, "Query"})
+  @Description("One report of the DataManager")
+  public static class Report extends Event {
+    @Label("Report")
+    String report;
+
+    @Label("Parameters")
+    String parameters;
+
+    @Label("Records")
+    @Description("Records the report aggregated or scanned")
+    long records;
+
+    @Label("Result Rows")
+    int results;
+
+    // transient, so it is not a field of the event
+    private transient LongSupplier recordCounter;
+
+    /**
+     * @param counter counts the records the report aggregated or scanned, only called when the
+     *        event is committed
+     */
+    void countRecords(LongSupplier counter) {
+      recordCounter = counter;
+    }
+
+    /**
+     * end the event and commit it if it is recorded, the parameters are only built and the records
+     * only counted then. Without a record counter the records are the result rows.
+     *
+     * @param report report name
+     * @param parameters builds the arguments of the report
+     * @param results the number of rows of the report
+     */
+    void finish(String report, Supplier<String> parameters, int results) {
+      end();
+      if (shouldCommit()) {
+        this.report = report;
+        this.parameters = parameters.get();
+        records = null == recordCounter ? results : recordCounter.getAsLong();
+        this.results = results;
+        commit();
+      }
+    }
+  }
+
+  /**
+   * Writing or reading one binary snapshot, also during log compaction and recovery
+   */
+  @Name("milkweight.Snapshot")
+  @Label("Snapshot")
+  @Category({CATEGORY, "Store"})
+  @Description("Writing or reading one binary snapshot file")
+  public static class Snapshot extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Records")
+    int records;
+
+    @Label("Farms")
+    int farms;
+
+    /**
+     * end the event and commit it if it is recorded
+     *
+     * @param operation save or load
+     * @param snapshotFile given file
+     * @param records the number of records
+     * @param farms the number of farms
+     */
+    void finish(String operation, File snapshotFile, int records, int farms) {
+      end();
+      if (shouldCommit()) {
+        this.operation = operation;
+        file = snapshotFile.getPath();
+        bytes = snapshotFile.length();
+        this.records = records;
+        this.farms = farms;
+        commit();
+      }
+    }
+  }
+}
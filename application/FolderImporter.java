@@ -0,0 +1,210 @@
+package application;
+
+/**
+ * Reads and parses a set of data files across a worker pool so a whole folder can be imported at
+ * once. The csv files are checked in parallel and then streamed into the store one bounded batch at
+ * a time, so the memory used does not depend on the size of the files.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class FolderImporter {
+
+  private static final LatencyHistogram PARSE_LATENCY =
+      Metrics.histogram("import.parse");
+  private static final LatencyHistogram MERGE_LATENCY =
+      Metrics.histogram("import.merge");
+  private static final Metrics.Counter FILES_REJECTED =
+      Metrics.counter("files.rejected");
+
+  private int parallelism;
+
+  public FolderImporter() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public FolderImporter(int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * Notified each time one file has been read and parsed, possibly from a worker thread.
+   */
+  public interface ProgressListener {
+    void onProgress(int doneFiles, int totalFiles);
+  }
+
+  /**
+   * check all given files in parallel, a file with an illegal line is rejected as a whole. Nothing
+   * is inserted into the CheeseFactory, the caller merges the accepted files into the store.
+   *
+   * @param files given data files
+   * @param listener progress listener, may be null
+   * @return the accepted files in file order and the error messages of the rejected files
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  public ImportResult importFiles(List<File> files, ProgressListener listener)
+      throws InterruptedException {
+    int threads = Math.min(parallelism, Math.max(1, files.size()));
+    ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "milk-import");
+      thread.setDaemon(true);
+      return thread;
+    });
+    AtomicInteger done = new AtomicInteger();
+    try {
+      List<Future<ParsedFile>> futures = new ArrayList<>();
+      for (File file : files) {
+        futures.add(pool.submit(() -> {
+          long started = Metrics.start();
+          try {
+            return checkFile(file);
+          } finally {
+            PARSE_LATENCY.recordSince(started);
+            if (null != listener) {
+              listener.onProgress(done.incrementAndGet(), files.size());
+            }
+          }
+        }));
+      }
+      ImportResult result = new ImportResult();
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          ParsedFile parsed = futures.get(i).get();
+          result.files.add(parsed);
+          result.rows += parsed.rows;
+        } catch (ExecutionException e) {
+          FILES_REJECTED.increment();
+          result.errors.add("Parse file:" + files.get(i).getName() + " error, "
+              + e.getCause().getMessage());
+        }
+      }
+      return result;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * map one file window by window and decode it with the streaming parser without keeping any row,
+   * so workers never share a buffer or a dictionary. Binary snapshot files are bulk loaded instead.
+   *
+   * @param file given data file
+   * @return the checked file
+   * @throws IOException if a binary snapshot can not be read
+   * @throws IllegalArgumentException if the file can not be read or any line can not be parsed
+   */
+  private ParsedFile checkFile(File file) throws IOException {
+    if (MilkBinaryFormat.isBinary(file)) {
+      MilkBatch snapshot = MilkBinaryFormat.read(file);
+      return new ParsedFile(file, snapshot, snapshot.size());
+    }
+    FarmRecordParser parser = new FileManager().readMapped(file,
+        new FarmDictionary(), record -> {
+        });
+    if (null == parser) {
+      throw new IllegalArgumentException("please check file");
+    }
+    if (parser.getRejected() > 0) {
+      throw new IllegalArgumentException(parser.getErrorMessage());
+    }
+    return new ParsedFile(file, null, parser.getRows());
+  }
+
+  /**
+   * One accepted file, a binary snapshot comes with its loaded rows
+   */
+  private static class ParsedFile {
+    private File file;
+    private MilkBatch snapshot;
+    private int rows;
+
+    ParsedFile(File file, MilkBatch snapshot, int rows) {
+      this.file = file;
+      this.snapshot = snapshot;
+      this.rows = rows;
+    }
+  }
+
+  /**
+   * The result of one import: the accepted files and the errors of the rejected files
+   */
+  public static class ImportResult {
+    private List<ParsedFile> files = new ArrayList<>();
+    private List<String> errors = new ArrayList<>();
+    private int rows;
+    private BatchResult merged = new BatchResult();
+
+    /**
+     * @return the accepted files in file order
+     */
+    public List<File> getFiles() {
+      List<File> accepted = new ArrayList<>();
+      for (ParsedFile parsed : files) {
+        accepted.add(parsed.file);
+      }
+      return accepted;
+    }
+
+    public List<String> getErrors() {
+      return errors;
+    }
+
+    /**
+     * @return the number of rows in all accepted files
+     */
+    public int getRows() {
+      return rows;
+    }
+
+    /**
+     * merge the accepted files into the CheeseFactory in file order, the csv files are read again
+     * and merged batch by batch. A conflicting row is reported as an error.
+     *
+     * @return the counts of all files
+     */
+    public BatchResult merge() {
+      for (ParsedFile parsed : files) {
+        long started = Metrics.start();
+        if (null != parsed.snapshot) {
+          merged.add(CheeseFactory.insertBatch(parsed.snapshot));
+          parsed.snapshot = null;
+        } else {
+          FarmRecordParser parser =
+              new FileManager().readIntoStore(parsed.file, merged);
+          if (null == parser || parser.getRejected() > 0) {
+            // the file changed after it was checked, the rows before the error stay merged
+            FILES_REJECTED.increment();
+            errors.add("Parse file:" + parsed.file.getName() + " error, "
+                + (null == parser ? "please check file"
+                    : parser.getErrorMessage()));
+          }
+        }
+        MERGE_LATENCY.recordSince(started);
+      }
+      if (merged.getConflicts() > 0) {
+        errors.add(merged.getConflicts()
+            + " rows skipped, their farm and date have another weight already");
+      }
+      return merged;
+    }
+
+    /**
+     * @return the counts of the merged batches
+     */
+    public BatchResult getMerged() {
+      return merged;
+    }
+  }
+}
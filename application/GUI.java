@@ -5,10 +5,11 @@ package application;
  */
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
-import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -28,10 +29,13 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 
 import java.io.File;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -52,9 +56,9 @@ public class GUI extends Application {
   private Stage primaryStage;
   private DataManager dataManager;
   private FileManager fileManager;
+  private QueryExecutor queries;
   private TableView<Farm> tableView;
-  private String[] farmIDs;
-  private String[] years;
+  private FarmTableModel tableModel;
   private ComboBox<String> dropDownFarm;
   private ComboBox<String> dropDownYearF;
   private ComboBox<String> dropDownYearA;
@@ -69,10 +73,14 @@ public class GUI extends Application {
   private GridPane centerPane;
   private VBox vbRight;
   private TextArea reporter;
+  private ProgressBar progressBar;
+  // why the changes are not logged, null when the log is open or turned off
+  private String logError;
 
   public GUI() {
     dataManager = new DataManager();
     fileManager = new FileManager();
+    queries = new QueryExecutor(Platform::runLater);
 
     outputFormat = new VBox();
     centerPane = new GridPane();
@@ -86,8 +94,6 @@ public class GUI extends Application {
     dropDownOrderA = new ComboBox<String>();
     dropDownSorterM = new ComboBox<String>();
     dropDownOrderM = new ComboBox<String>();
-    farmIDs = new String[0];
-    years = new String[0];
 
     dropDownSorterF.getItems().addAll(SORTED_BY);
     dropDownOrderF.getItems().addAll(ORDERS);
@@ -97,6 +103,31 @@ public class GUI extends Application {
     dropDownOrderM.getItems().addAll(ORDERS);
   }
 
+  /**
+   * register the metrics and restore the changes logged by the last run before the window shows up.
+   * The log is kept per user in ~/.milkweight, a log that can not be opened is reported once the
+   * window shows and the changes of this run are not logged.
+   */
+  @Override
+  public void init() throws Exception {
+    Metrics.registerMBean();
+    if (Boolean.parseBoolean(System.getProperty("milkweight.wal", "true"))) {
+      File directory = new File(System.getProperty("milkweight.dataDir",
+          new File(System.getProperty("user.home"), ".milkweight").getPath()));
+      try {
+        CheeseFactory.openLog(directory);
+      } catch (IOException e) {
+        logError = e.getMessage();
+      }
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    queries.shutdown();
+    CheeseFactory.closeLog();
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public void start(Stage primaryStage) throws Exception {
@@ -138,10 +169,12 @@ public class GUI extends Application {
       @Override
       public void handle(ActionEvent actionEvent) {
         final FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Select your file(csv file only)");
+        fileChooser.setTitle("Select your file(csv or mwb file)");
         fileChooser.setInitialDirectory(new File("."));
         fileChooser.getExtensionFilters()
-            .add(new FileChooser.ExtensionFilter("CSV", "*.csv"));
+            .addAll(new FileChooser.ExtensionFilter("CSV", "*.csv"),
+                new FileChooser.ExtensionFilter("Milk binary",
+                    "*" + MilkBinaryFormat.EXTENSION));
         File file = fileChooser.showSaveDialog(primaryStage);
         if (null != file) {
           boolean result = fileManager.writeToFile(file);
@@ -173,41 +206,80 @@ public class GUI extends Application {
       }
     });
 
+    if (CheeseFactory.getStore().size() > 0) {
+      dropDownsChanged();
+    }
     primaryStage.setTitle(APP_TITLE);
     primaryStage.setScene(mainScene);
     primaryStage.show();
+    if (null != logError) {
+      showMsg("Changes are not logged, " + logError);
+    }
   }
 
-  private void parseOneFile(File file) {
-    boolean readResult = fileManager.readFile(file);
-    if (!readResult) {
-      showMsg("Read file error, please check file");
-      return;
+  /**
+   * read and parse the given files on a worker pool in the background, then merge all parsed
+   * batches into the CheeseFactory on the FX thread
+   *
+   * @param files given data files
+   * @param buttons buttons disabled while the import is running
+   */
+  private void importFiles(List<File> files, Button... buttons) {
+    Task<FolderImporter.ImportResult> task =
+        new Task<FolderImporter.ImportResult>() {
+          @Override
+          protected FolderImporter.ImportResult call() throws Exception {
+            FolderImporter.ImportResult result = new FolderImporter()
+                .importFiles(files, (done, total) -> updateProgress(done, total));
+            // the store is thread-safe, merge here so the FX thread does not wait
+            result.merge();
+            return result;
+          }
+        };
+    progressBar.progressProperty().bind(task.progressProperty());
+    progressBar.setVisible(true);
+    for (Button button : buttons) {
+      button.setDisable(true);
     }
-    List<String> fileContents = fileManager.getFileContents();
-    List<Farm> farmList = new ArrayList<>();
-    try {
-      for (String content : fileContents) {
-        farmList.add(Util.parseFarm(content));
+    task.setOnSucceeded(event -> {
+      FolderImporter.ImportResult result = task.getValue();
+      importFinished(buttons);
+      dataChanged();
+      if (!result.getErrors().isEmpty()) {
+        showMsg(String.join("\n", result.getErrors()));
       }
-      farmList.forEach(CheeseFactory::insertFarm);
-    } catch (Exception ex) {
-      showMsg("Parse file:" + file.getName() + " error, " + ex.getMessage());
-    }
+    });
+    task.setOnFailed(event -> {
+      importFinished(buttons);
+      showMsg("Read folder error, " + task.getException().getMessage());
+    });
+    Thread thread = new Thread(task, "milk-folder-import");
+    thread.setDaemon(true);
+    thread.start();
   }
 
+  private void importFinished(Button... buttons) {
+    progressBar.progressProperty().unbind();
+    progressBar.setVisible(false);
+    for (Button button : buttons) {
+      button.setDisable(false);
+    }
+  }
 
   /**
-   * when a farm is added,edit or removed or a new file/folder is loaded, the dataset needs to be
-   * updated
+   * when a new file/folder is loaded, the dataset needs to be updated
    */
   private void dataChanged() {
-    List<Farm> farms = dataManager.getDataSortedByField(FiledType.ID, true);
-    tableView.setItems(FXCollections.observableArrayList(farms));
-    farmIDs = farms.stream().map(Farm::getId).distinct().sorted()
-        .toArray(String[]::new);
-    years = farms.stream().map(Farm::getYear).distinct().sorted()
-        .map(String::valueOf).toArray(String[]::new);
+    tableModel.refresh();
+    dropDownsChanged();
+  }
+
+  /**
+   * refill the farm and year drop downs from the table model
+   */
+  private void dropDownsChanged() {
+    String[] farmIDs = tableModel.getFarmIds();
+    String[] years = tableModel.getYears();
 
     dropDownFarm.getItems().clear();
     dropDownYearA.getItems().clear();
@@ -245,15 +317,16 @@ public class GUI extends Application {
 
     fileChooseBtn.setOnAction(actionEvent -> {
       final FileChooser fileChooser = new FileChooser();
-      fileChooser.setTitle("Select your file(csv file only)");
+      fileChooser.setTitle("Select your file(csv or mwb file)");
       fileChooser.setInitialDirectory(new File("."));
       fileChooser.getExtensionFilters()
-          .add(new FileChooser.ExtensionFilter("CSV", "*.csv"));
+          .addAll(new FileChooser.ExtensionFilter("CSV", "*.csv"),
+              new FileChooser.ExtensionFilter("Milk binary",
+                  "*" + MilkBinaryFormat.EXTENSION));
       File file = fileChooser.showOpenDialog(primaryStage);
       if (null != file) {
         textField.setText(file.getAbsolutePath());
-        parseOneFile(file);
-        dataChanged();
+        importFiles(Arrays.asList(file), fileChooseBtn, open);
       }
     });
 
@@ -264,11 +337,10 @@ public class GUI extends Application {
       File folder = directoryChooser.showDialog(primaryStage);
       if (null != folder) {
         textField.setText(folder.getAbsolutePath());
-        File[] files = folder.listFiles();
-        for (File file : files) {
-          parseOneFile(file);
+        File[] files = folder.listFiles(File::isFile);
+        if (null != files) {
+          importFiles(Arrays.asList(files), fileChooseBtn, open);
         }
-        dataChanged();
       }
     });
 
@@ -291,10 +363,27 @@ public class GUI extends Application {
 
     tableView.getColumns().addAll(farmID, date, weight);
 
-    dataChanged();
+    // the model shows a window of rows from the store and sorts them itself
+    tableModel = new FarmTableModel();
+    tableView.setItems(tableModel);
+    tableView.setSortPolicy(table -> {
+      TableColumn<Farm, ?> column =
+          table.getSortOrder().isEmpty() ? null : table.getSortOrder().get(0);
+      FiledType field = date == column ? FiledType.DATE
+          : weight == column ? FiledType.WEIGHT : FiledType.ID;
+      tableModel.sort(field, null == column
+          || TableColumn.SortType.ASCENDING == column.getSortType());
+      return true;
+    });
+    dropDownsChanged();
 
     centerPane.add(tableView, 0, 1, 3, 1);
 
+    progressBar = new ProgressBar(0);
+    progressBar.setPrefWidth(400);
+    progressBar.setVisible(false);
+    centerPane.add(progressBar, 0, 2);
+
     vbRight = new VBox();
     vbRight.setAlignment(Pos.BASELINE_CENTER);
     vbRight.setPadding(new Insets(50, 20, 20, 20));
@@ -327,7 +416,8 @@ public class GUI extends Application {
             if (!result) {
               showMsg("Duplicated farm: " + inputFarm.getId());
             } else {
-              dataChanged();
+              tableModel.recordInserted(inputFarm);
+              dropDownsChanged();
             }
           } catch (Exception ex) {
             showMsg(ex.getMessage());
@@ -368,7 +458,8 @@ public class GUI extends Application {
               showMsg("Specified farm not exits, id:" + inputFarm.getId()
                   + " date: " + inputFarm.getDate());
             } else {
-              dataChanged();
+              tableModel.recordRemoved(removedFarm);
+              dropDownsChanged();
             }
           } catch (Exception ex) {
             showMsg(ex.getMessage());
@@ -410,7 +501,7 @@ public class GUI extends Application {
               showMsg("Specified farm not exits, id:" + inputFarm.getId()
                   + " date: " + inputFarm.getDate());
             } else {
-              dataChanged();
+              tableModel.recordUpdated(inputFarm);
             }
           } catch (Exception ex) {
             showMsg(ex.getMessage());
@@ -457,25 +548,9 @@ public class GUI extends Application {
         if ("FarmID".equals(farmId) || "Year".equals(year)) {
           reporter.setText("No Data Yet");
         } else {
-          List<DataManager.FarmReport> reports =
-              dataManager.getFarmReport(farmId, Util.parseAsInt(year));
-          if (!reports.isEmpty()) {
-            final String format = "%-20s%-20s%-20s%-20s%-20s%-20s\n";
-            StringBuilder sb = new StringBuilder();
-            sb.append(String.format(format, "Month", "Min", "Max", "Average",
-                "Total", "Share(%)"));
-            for (DataManager.FarmReport report : reports) {
-              sb.append(String.format(format, String.valueOf(report.getMonth()),
-                  String.valueOf(report.getMin()),
-                  String.valueOf(report.getMax()),
-                  Util.formatDouble(report.getAvg(), DEFAULT_DOUBLE_DECIMAL),
-                  String.valueOf(report.getTotalWeight()), Util.formatDouble(
-                      report.getPercent(), DEFAULT_DOUBLE_DECIMAL)));
-            }
-            reporter.setText(sb.toString());
-          } else {
-            reporter.setText("No Records");
-          }
+          runQuery(Arrays.asList("farm", farmId, year),
+              () -> dataManager.getFarmReport(farmId, Util.parseAsInt(year)),
+              reports -> showFarmReports(reports));
         }
       }
     });
@@ -517,10 +592,12 @@ public class GUI extends Application {
               .contains(order)) {
             order = ORDERS[0];
           }
-          List<DataManager.DateRangeReport> reports =
-              dataManager.getAnnualReport(Util.parseAsInt(year),
-                  FiledType.valueOf(sortedBy), ORDERS[0].equals(order));
-          showReports(reports);
+          FiledType field = FiledType.valueOf(sortedBy);
+          boolean asc = ORDERS[0].equals(order);
+          runQuery(Arrays.asList("annual", year, field, asc),
+              () -> dataManager.getAnnualReport(Util.parseAsInt(year), field,
+                  asc),
+              reports -> showReports(reports));
         }
       }
     });
@@ -567,10 +644,12 @@ public class GUI extends Application {
               .contains(order)) {
             order = ORDERS[0];
           }
-          List<DataManager.DateRangeReport> reports = dataManager
-              .getMonthlyReport(Util.parseAsInt(year), Util.parseAsInt(month),
-                  FiledType.valueOf(sortedBy), ORDERS[0].equals(order));
-          showReports(reports);
+          FiledType field = FiledType.valueOf(sortedBy);
+          boolean asc = ORDERS[0].equals(order);
+          runQuery(Arrays.asList("monthly", year, month, field, asc),
+              () -> dataManager.getMonthlyReport(Util.parseAsInt(year),
+                  Util.parseAsInt(month), field, asc),
+              reports -> showReports(reports));
         }
       }
     });
@@ -626,16 +705,65 @@ public class GUI extends Application {
               .contains(order)) {
             order = ORDERS[0];
           }
-          List<DataManager.DateRangeReport> reports =
-              dataManager.getDateRangeReports(start, end,
-                  FiledType.valueOf(sortedBy), ORDERS[0].equals(order));
-          showReports(reports);
+          FiledType field = FiledType.valueOf(sortedBy);
+          boolean asc = ORDERS[0].equals(order);
+          runQuery(Arrays.asList("range", start, end, field, asc),
+              () -> dataManager.getDateRangeReports(start, end, field, asc),
+              reports -> showReports(reports));
         }
       }
     });
 
     outputFormat.getChildren().add(range);
     outputFormat.getChildren().add(reporter);
+
+    // a report still running for the old choice is of no use anymore
+    for (ComboBox<String> box : Arrays.asList(dropDownFarm, dropDownYearF,
+        dropDownYearA, dropDownSorterA, dropDownOrderA, dropDownYearM,
+        dropDownMonth, dropDownSorterM, dropDownOrderM, dropDownSorterF,
+        dropDownOrderF)) {
+      box.valueProperty().addListener((observable, oldValue, newValue) -> {
+        if (queries.cancel()) {
+          reporter.setText("Query cancelled");
+        }
+      });
+    }
+  }
+
+  /**
+   * run the report query in the background and show its result when it is still wanted, the key
+   * identifies the query together with the store version
+   *
+   * @param key query kind and parameters
+   * @param query given report query
+   * @param show shows the result on the FX thread
+   */
+  private <T> void runQuery(List<Object> key, Callable<T> query,
+      Consumer<T> show) {
+    reporter.setText("Loading...");
+    List<Object> versionedKey = new ArrayList<>(key);
+    versionedKey.add(CheeseFactory.getStore().getVersion());
+    queries.submit(versionedKey, query, show,
+        error -> reporter.setText("Query failed, " + error.getMessage()));
+  }
+
+  private void showFarmReports(List<DataManager.FarmReport> reports) {
+    if (!reports.isEmpty()) {
+      final String format = "%-20s%-20s%-20s%-20s%-20s%-20s\n";
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format(format, "Month", "Min", "Max", "Average",
+          "Total", "Share(%)"));
+      for (DataManager.FarmReport report : reports) {
+        sb.append(String.format(format, String.valueOf(report.getMonth()),
+            String.valueOf(report.getMin()), String.valueOf(report.getMax()),
+            Util.formatDouble(report.getAvg(), DEFAULT_DOUBLE_DECIMAL),
+            String.valueOf(report.getTotalWeight()),
+            Util.formatDouble(report.getPercent(), DEFAULT_DOUBLE_DECIMAL)));
+      }
+      reporter.setText(sb.toString());
+    } else {
+      reporter.setText("No Records");
+    }
   }
 
   private void showReports(List<DataManager.DateRangeReport> reports) {
@@ -0,0 +1,134 @@
+package application;
+
+/**
+ * Concurrent latency histogram with logarithmic buckets in the style of HdrHistogram: every power of
+ * two is split into 32 linear sub-buckets, so any recorded value is reported within about 3% and
+ * the whole range from nanoseconds to hours fits in a fixed array. Recording is a few shifts and
+ * three uncontended atomic adds and does nothing while metrics are disabled.
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BITS = 5;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  // values below SUB_COUNT have a bucket each, then SUB_COUNT buckets per power of two
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+  private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private LongAdder count = new LongAdder();
+  private LongAdder sum = new LongAdder();
+  private LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * account one latency
+   *
+   * @param nanos latency in nanoseconds
+   */
+  public void record(long nanos) {
+    if (!Metrics.ENABLED) {
+      return;
+    }
+    nanos = Math.max(0, nanos);
+    counts.incrementAndGet(bucketOf(nanos));
+    count.increment();
+    sum.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  /**
+   * account the time passed since the start
+   *
+   * @param start the value of Metrics.start() when the timed work began
+   */
+  public void recordSince(long start) {
+    if (Metrics.ENABLED) {
+      record(System.nanoTime() - start);
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @return the mean latency in nanoseconds, 0 without records
+   */
+  public double getMean() {
+    long n = count.sum();
+    return 0 == n ? 0 : (double) sum.sum() / n;
+  }
+
+  /**
+   * @return the max latency in nanoseconds
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @param q quantile between 0 and 1
+   * @return the latency in nanoseconds at the quantile within the bucket precision, 0 without
+   *         records
+   */
+  public long getValueAtQuantile(double q) {
+    if (q < 0 || q > 1) {
+      throw new IllegalArgumentException("Illegal quantile:" + q);
+    }
+    long total = 0;
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (0 == total) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(q * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(valueOf(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.reset();
+    sum.reset();
+    max.reset();
+  }
+
+  private static int bucketOf(long value) {
+    if (value < SUB_COUNT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+    return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+  }
+
+  /**
+   * @return the middle of the values of the bucket
+   */
+  private static long valueOf(int bucket) {
+    if (bucket < SUB_COUNT) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+    int shift = exponent - SUB_BITS;
+    long lowest = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+    return lowest + (1L << shift >> 1);
+  }
+}
@@ -1,7 +1,8 @@
 package application;
 
 /**
- * Main class for the milk weight
+ * Main class for the milk weight, starts the GUI or runs a headless report when the arguments start
+ * with a report command
  */
 
 import javafx.application.Application;
@@ -12,6 +13,10 @@ import javafx.application.Application;
 public class Main {
 
   public static void main(String[] args) {
+    if (Cli.isCommand(args)) {
+      // JavaFX is never initialized in batch mode
+      System.exit(Cli.run(args, System.out, System.err));
+    }
     Application.launch(GUI.class, args);
   }
 
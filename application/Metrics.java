@@ -0,0 +1,260 @@
+package application;
+
+/**
+ * Process wide latency histograms, row counters and store and heap gauges. Instrumented code keeps
+ * its histograms and counters in static fields and times work with start() and recordSince(), which
+ * read the clock only while metrics are enabled. The numbers are exposed as the MXBean
+ * milkweight:type=Metrics and as a text dump.
+ *
+ * Metrics are on by default, -Dmilkweight.metrics=false turns every record into a no-op the JIT
+ * removes.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class Metrics {
+
+  public static final boolean ENABLED =
+      Boolean.parseBoolean(System.getProperty("milkweight.metrics", "true"));
+  public static final String OBJECT_NAME = "milkweight:type=Metrics";
+
+  private static final Map<String, LatencyHistogram> HISTOGRAMS =
+      new ConcurrentSkipListMap<>();
+  private static final Map<String, Counter> COUNTERS =
+      new ConcurrentSkipListMap<>();
+  private static boolean registered;
+
+  private Metrics() {}
+
+  /**
+   * @param name histogram name such as report.annual
+   * @return the histogram of the name, created on first use
+   */
+  public static LatencyHistogram histogram(String name) {
+    return HISTOGRAMS.computeIfAbsent(name, key -> new LatencyHistogram());
+  }
+
+  /**
+   * @param name counter name such as rows.parsed
+   * @return the counter of the name, created on first use
+   */
+  public static Counter counter(String name) {
+    return COUNTERS.computeIfAbsent(name, key -> new Counter());
+  }
+
+  /**
+   * @return the start time to hand to LatencyHistogram.recordSince, 0 while metrics are disabled
+   */
+  public static long start() {
+    return ENABLED ? System.nanoTime() : 0;
+  }
+
+  /**
+   * @return the store and heap gauges by name
+   */
+  public static Map<String, Long> gauges() {
+    MilkStore store = CheeseFactory.getStore();
+    Runtime runtime = Runtime.getRuntime();
+    Map<String, Long> gauges = new LinkedHashMap<>();
+    gauges.put("store.rows", (long) store.size());
+    gauges.put("store.farms", (long) store.getDictionary().size());
+    gauges.put("store.version", store.getVersion());
+    gauges.put("heap.used", runtime.totalMemory() - runtime.freeMemory());
+    gauges.put("heap.max", runtime.maxMemory());
+    return gauges;
+  }
+
+  /**
+   * @return one line per gauge, counter and histogram, latencies in microseconds
+   */
+  public static String dump() {
+    StringBuilder sb = new StringBuilder();
+    if (!ENABLED) {
+      sb.append("# metrics disabled\n");
+    }
+    for (Map.Entry<String, Long> gauge : gauges().entrySet()) {
+      sb.append(gauge.getKey()).append(' ').append(gauge.getValue())
+          .append('\n');
+    }
+    for (Map.Entry<String, Counter> counter : COUNTERS.entrySet()) {
+      sb.append(counter.getKey()).append(' ')
+          .append(counter.getValue().get()).append('\n');
+    }
+    for (Map.Entry<String, LatencyHistogram> entry : HISTOGRAMS.entrySet()) {
+      LatencyHistogram histogram = entry.getValue();
+      if (0 == histogram.getCount()) {
+        sb.append(entry.getKey()).append(" count=0\n");
+        continue;
+      }
+      sb.append(String.format(
+          "%s count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus"
+              + " max=%.1fus%n",
+          entry.getKey(), histogram.getCount(), histogram.getMean() / 1000,
+          micros(histogram.getValueAtQuantile(0.5)),
+          micros(histogram.getValueAtQuantile(0.9)),
+          micros(histogram.getValueAtQuantile(0.99)),
+          micros(histogram.getMax())));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * clear all counters and histograms, the gauges are live values
+   */
+  public static void reset() {
+    COUNTERS.values().forEach(Counter::reset);
+    HISTOGRAMS.values().forEach(LatencyHistogram::reset);
+  }
+
+  /**
+   * register the MXBean with the platform MBean server once, a failure is only reported
+   */
+  public static synchronized void registerMBean() {
+    if (registered) {
+      return;
+    }
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(new MetricsBean(), new ObjectName(OBJECT_NAME));
+      registered = true;
+    } catch (JMException e) {
+      System.err.println("Can not register metrics: " + e.getMessage());
+    }
+  }
+
+  private static double micros(long nanos) {
+    return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+  }
+
+  /**
+   * Sum of events, adding is one uncontended LongAdder increment and nothing while metrics are
+   * disabled
+   */
+  public static class Counter {
+    private LongAdder adder = new LongAdder();
+
+    public void increment() {
+      if (ENABLED) {
+        adder.increment();
+      }
+    }
+
+    public void add(long n) {
+      if (ENABLED) {
+        adder.add(n);
+      }
+    }
+
+    public long get() {
+      return adder.sum();
+    }
+
+    void reset() {
+      adder.reset();
+    }
+  }
+
+  /**
+   * Summary of one histogram as seen over JMX, latencies in microseconds
+   */
+  public static class LatencySummary {
+    private long count;
+    private double mean;
+    private double p50;
+    private double p99;
+    private double max;
+
+    LatencySummary(LatencyHistogram histogram) {
+      count = histogram.getCount();
+      mean = histogram.getMean() / 1000;
+      p50 = micros(histogram.getValueAtQuantile(0.5));
+      p99 = micros(histogram.getValueAtQuantile(0.99));
+      max = micros(histogram.getMax());
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getMean() {
+      return mean;
+    }
+
+    public double getP50() {
+      return p50;
+    }
+
+    public double getP99() {
+      return p99;
+    }
+
+    public double getMax() {
+      return max;
+    }
+  }
+
+  /**
+   * Management interface of the metrics, see the getters of Metrics
+   */
+  public interface MetricsMXBean {
+    boolean isEnabled();
+
+    Map<String, Long> getGauges();
+
+    Map<String, Long> getCounters();
+
+    Map<String, LatencySummary> getLatencies();
+
+    String dump();
+
+    void reset();
+  }
+
+  private static class MetricsBean implements MetricsMXBean {
+    @Override
+    public boolean isEnabled() {
+      return ENABLED;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+      return gauges();
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+      Map<String, Long> counters = new LinkedHashMap<>();
+      COUNTERS.forEach((name, counter) -> counters.put(name, counter.get()));
+      return counters;
+    }
+
+    @Override
+    public Map<String, LatencySummary> getLatencies() {
+      Map<String, LatencySummary> latencies = new LinkedHashMap<>();
+      HISTOGRAMS.forEach((name, histogram) -> latencies.put(name,
+          new LatencySummary(histogram)));
+      return latencies;
+    }
+
+    @Override
+    public String dump() {
+      return Metrics.dump();
+    }
+
+    @Override
+    public void reset() {
+      Metrics.reset();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package application;
+
+/**
+ * A columnar batch of parsed rows waiting to be merged into the CheeseFactory. Farm codes refer to
+ * the batch's own dictionary, so batches can be filled on different threads without locking.
+ */
+
+import java.util.Arrays;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class MilkBatch implements FarmRecordParser.RecordSink {
+
+  private FarmDictionary dictionary;
+  private int[] codes;
+  private int[] days;
+  private int[] weights;
+  private int size;
+
+  public MilkBatch() {
+    this(1024);
+  }
+
+  public MilkBatch(int capacity) {
+    dictionary = new FarmDictionary();
+    capacity = Math.max(16, capacity);
+    codes = new int[capacity];
+    days = new int[capacity];
+    weights = new int[capacity];
+  }
+
+  @Override
+  public void accept(FarmRecord record) {
+    add(record.getFarmCode(), record.getDay(), record.getWeight());
+  }
+
+  /**
+   * @param farm given farm
+   */
+  public void add(Farm farm) {
+    add(dictionary.intern(farm.getId()), Util.epochDayOf(farm.getDate()),
+        farm.getWeight());
+  }
+
+  /**
+   * @param code farm code in this batch's dictionary
+   * @param day epoch day
+   * @param weight milk weight
+   */
+  public void add(int code, int day, int weight) {
+    if (size == codes.length) {
+      int capacity = size + (size >> 1);
+      codes = Arrays.copyOf(codes, capacity);
+      days = Arrays.copyOf(days, capacity);
+      weights = Arrays.copyOf(weights, capacity);
+    }
+    codes[size] = code;
+    days[size] = day;
+    weights[size] = weight;
+    size++;
+  }
+
+  /**
+   * drop all rows and keep the dictionary and the arrays, so the batch can be filled again
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  public FarmDictionary getDictionary() {
+    return dictionary;
+  }
+
+  public int codeAt(int i) {
+    return codes[i];
+  }
+
+  public int dayAt(int i) {
+    return days[i];
+  }
+
+  public int weightAt(int i) {
+    return weights[i];
+  }
+
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,294 @@
+package application;
+
+/**
+ * Compact binary snapshot format of the milk store, used instead of csv for files ending in ".mwb".
+ *
+ * Layout: the magic "MWB" and a format version byte, the farm dictionary as varint counted utf-8
+ * names and the total record count, then the records of every farm in dictionary order as a varint
+ * record count followed by blocks of up to 1024 records. A block starts with its record count, its
+ * first day, its day span and the min and max weight, then holds the gaps between days as varints
+ * and the weights as zigzag varint deltas. The file ends with a CRC32 of all bytes before it.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class MilkBinaryFormat {
+
+  public static final String EXTENSION = ".mwb";
+
+  private static final byte[] MAGIC = {'M', 'W', 'B'};
+  private static final int FORMAT_VERSION = 1;
+  private static final int BLOCK_SIZE = 1024;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private MilkBinaryFormat() {}
+
+  /**
+   * @param file given file
+   * @return true if the file name has the binary extension
+   */
+  public static boolean isBinary(File file) {
+    return file.getName().toLowerCase().endsWith(EXTENSION);
+  }
+
+  /**
+   * write all records of the snapshot into the file
+   *
+   * @param snapshot given snapshot
+   * @param outputFile output file
+   * @throws IOException if the file can not be written
+   */
+  public static void write(MilkSnapshot snapshot, File outputFile)
+      throws IOException {
+    FlightEvents.Snapshot event = new FlightEvents.Snapshot();
+    event.begin();
+    try (OutputStream out = new FileOutputStream(outputFile)) {
+      Encoder encoder = new Encoder(out);
+      encoder.writeBytes(MAGIC, MAGIC.length);
+      encoder.writeByte(FORMAT_VERSION);
+      encoder.writeVarInt(snapshot.getFarmCount());
+      for (int code = 0; code < snapshot.getFarmCount(); code++) {
+        byte[] name = snapshot.nameOf(code).getBytes(StandardCharsets.UTF_8);
+        encoder.writeVarInt(name.length);
+        encoder.writeBytes(name, name.length);
+      }
+      encoder.writeVarInt(snapshot.size());
+      for (int code = 0; code < snapshot.getFarmCount(); code++) {
+        int size = snapshot.size(code);
+        encoder.writeVarInt(size);
+        for (int from = 0; from < size; from += BLOCK_SIZE) {
+          writeBlock(snapshot, code, from, Math.min(from + BLOCK_SIZE, size),
+              encoder);
+        }
+      }
+      encoder.finish();
+    }
+    event.finish("save", outputFile, snapshot.size(), snapshot.getFarmCount());
+  }
+
+  /**
+   * read all records of the file into a new batch
+   *
+   * @param inputFile binary snapshot file
+   * @return all records of the file
+   * @throws IOException if the file can not be read
+   * @throws IllegalArgumentException if the file is not a valid binary snapshot
+   */
+  public static MilkBatch read(File inputFile) throws IOException {
+    FlightEvents.Snapshot event = new FlightEvents.Snapshot();
+    event.begin();
+    byte[] bytes = Files.readAllBytes(inputFile.toPath());
+    if (bytes.length < MAGIC.length + 5) {
+      throw new IllegalArgumentException("Not a binary snapshot");
+    }
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (bytes[i] != MAGIC[i]) {
+        throw new IllegalArgumentException("Not a binary snapshot");
+      }
+    }
+    if (FORMAT_VERSION != bytes[MAGIC.length]) {
+      throw new IllegalArgumentException(
+          "Unsupported snapshot version " + bytes[MAGIC.length]);
+    }
+    int end = bytes.length - 4;
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, end);
+    int stored = (bytes[end] & 0xff) << 24 | (bytes[end + 1] & 0xff) << 16
+        | (bytes[end + 2] & 0xff) << 8 | bytes[end + 3] & 0xff;
+    if ((int) crc.getValue() != stored) {
+      throw new IllegalArgumentException("Checksum mismatch");
+    }
+
+    Decoder decoder = new Decoder(bytes, MAGIC.length + 1, end);
+    int farmCount = decoder.readVarInt();
+    String[] names = new String[farmCount];
+    for (int code = 0; code < farmCount; code++) {
+      names[code] = decoder.readString(decoder.readVarInt());
+    }
+    // every record takes at least two bytes, so a corrupt count can not allocate too much
+    MilkBatch batch =
+        new MilkBatch(Math.min(decoder.readVarInt(), bytes.length / 2));
+    for (String name : names) {
+      batch.getDictionary().intern(name);
+    }
+    for (int code = 0; code < farmCount; code++) {
+      int size = decoder.readVarInt();
+      for (int read = 0; read < size;) {
+        read += readBlock(code, decoder, batch);
+      }
+    }
+    if (decoder.pos != end) {
+      throw new IllegalArgumentException("Trailing bytes in snapshot");
+    }
+    event.finish("load", inputFile, batch.size(), farmCount);
+    return batch;
+  }
+
+  private static void writeBlock(MilkSnapshot snapshot, int code, int from,
+      int to, Encoder encoder) throws IOException {
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    for (int i = from; i < to; i++) {
+      min = Math.min(min, snapshot.weightAt(code, i));
+      max = Math.max(max, snapshot.weightAt(code, i));
+    }
+    int firstDay = snapshot.dayAt(code, from);
+    encoder.writeVarInt(to - from);
+    encoder.writeVarInt(zigzag(firstDay));
+    encoder.writeVarInt(snapshot.dayAt(code, to - 1) - firstDay);
+    encoder.writeVarInt(zigzag(min));
+    encoder.writeVarInt(zigzag(max));
+    for (int i = from + 1; i < to; i++) {
+      encoder.writeVarInt(
+          snapshot.dayAt(code, i) - snapshot.dayAt(code, i - 1));
+    }
+    int previous = 0;
+    for (int i = from; i < to; i++) {
+      int weight = snapshot.weightAt(code, i);
+      encoder.writeVarInt(zigzag(weight - previous));
+      previous = weight;
+    }
+  }
+
+  /**
+   * @return the number of records of the block
+   */
+  private static int readBlock(int code, Decoder decoder, MilkBatch batch) {
+    int count = decoder.readVarInt();
+    int firstDay = unzigzag(decoder.readVarInt());
+    int lastDay = firstDay + decoder.readVarInt();
+    int min = unzigzag(decoder.readVarInt());
+    int max = unzigzag(decoder.readVarInt());
+    if (count <= 0 || count > BLOCK_SIZE) {
+      throw new IllegalArgumentException("Illegal block size " + count);
+    }
+    int[] days = new int[count];
+    days[0] = firstDay;
+    for (int i = 1; i < count; i++) {
+      days[i] = days[i - 1] + decoder.readVarInt();
+    }
+    if (days[count - 1] != lastDay) {
+      throw new IllegalArgumentException("Illegal day span in block");
+    }
+    int weight = 0;
+    for (int i = 0; i < count; i++) {
+      weight += unzigzag(decoder.readVarInt());
+      if (weight < min || weight > max) {
+        throw new IllegalArgumentException("Weight out of block range");
+      }
+      batch.add(code, days[i], weight);
+    }
+    return count;
+  }
+
+  private static int zigzag(int value) {
+    return value << 1 ^ value >> 31;
+  }
+
+  private static int unzigzag(int value) {
+    return value >>> 1 ^ -(value & 1);
+  }
+
+  /**
+   * Buffered varint writer that keeps the checksum of everything written
+   */
+  private static class Encoder {
+    private OutputStream out;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;
+    private CRC32 crc = new CRC32();
+
+    Encoder(OutputStream out) {
+      this.out = out;
+    }
+
+    void writeByte(int value) throws IOException {
+      if (pos == buf.length) {
+        flush();
+      }
+      buf[pos++] = (byte) value;
+    }
+
+    void writeVarInt(int value) throws IOException {
+      if (pos + 5 > buf.length) {
+        flush();
+      }
+      while ((value & ~0x7f) != 0) {
+        buf[pos++] = (byte) (value & 0x7f | 0x80);
+        value >>>= 7;
+      }
+      buf[pos++] = (byte) value;
+    }
+
+    void writeBytes(byte[] bytes, int length) throws IOException {
+      for (int i = 0; i < length; i++) {
+        writeByte(bytes[i]);
+      }
+    }
+
+    /**
+     * write the checksum trailer and flush
+     */
+    void finish() throws IOException {
+      flush();
+      int value = (int) crc.getValue();
+      out.write(new byte[] {(byte) (value >>> 24), (byte) (value >>> 16),
+          (byte) (value >>> 8), (byte) value});
+      out.flush();
+    }
+
+    private void flush() throws IOException {
+      crc.update(buf, 0, pos);
+      out.write(buf, 0, pos);
+      pos = 0;
+    }
+  }
+
+  /**
+   * Varint reader over the bytes of a whole file
+   */
+  private static class Decoder {
+    private byte[] bytes;
+    private int pos;
+    private int end;
+
+    Decoder(byte[] bytes, int pos, int end) {
+      this.bytes = bytes;
+      this.pos = pos;
+      this.end = end;
+    }
+
+    int readVarInt() {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        if (pos >= end) {
+          throw new IllegalArgumentException("Truncated snapshot");
+        }
+        byte b = bytes[pos++];
+        value |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Illegal varint in snapshot");
+    }
+
+    String readString(int length) {
+      if (length < 0 || pos + length > end) {
+        throw new IllegalArgumentException("Truncated snapshot");
+      }
+      String value = new String(bytes, pos, length, StandardCharsets.UTF_8);
+      pos += length;
+      return value;
+    }
+  }
+}
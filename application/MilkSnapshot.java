@@ -0,0 +1,122 @@
+package application;
+
+/**
+ * Immutable view of the milk store at one version. A snapshot references the arrays of the farm
+ * columns instead of copying the records, so taking one costs O(farms) and iterating it needs no
+ * lock while writers keep changing the store.
+ */
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class MilkSnapshot {
+
+  private long version;
+  private String[] names;
+  private int[][] days;
+  private int[][] weights;
+  private int[] sizes;
+  private int size;
+
+  /**
+   * @param version store version the snapshot was taken at
+   * @param names farm ids indexed by farm code
+   * @param days shared day arrays indexed by farm code, null for a farm without records
+   * @param weights shared weight arrays indexed by farm code
+   * @param sizes number of records of each farm visible to this snapshot
+   */
+  MilkSnapshot(long version, String[] names, int[][] days, int[][] weights,
+      int[] sizes) {
+    this.version = version;
+    this.names = names;
+    this.days = days;
+    this.weights = weights;
+    this.sizes = sizes;
+    for (int farmSize : sizes) {
+      size += farmSize;
+    }
+  }
+
+  /**
+   * @return the store version, every change of the store increases it
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return the number of farm codes, including farms without records
+   */
+  public int getFarmCount() {
+    return names.length;
+  }
+
+  public String nameOf(int code) {
+    return names[code];
+  }
+
+  /**
+   * @return the number of records
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param code given farm code
+   * @return the number of records of the farm
+   */
+  public int size(int code) {
+    return sizes[code];
+  }
+
+  /**
+   * binary search the given day in the records of the farm
+   *
+   * @param code given farm code
+   * @param day given epoch day
+   * @return the position of the day if exists, otherwise (-(insertion point) - 1)
+   */
+  public int indexOf(int code, int day) {
+    return 0 == sizes[code] ? -1
+        : Arrays.binarySearch(days[code], 0, sizes[code], day);
+  }
+
+  public int dayAt(int code, int pos) {
+    return days[code][pos];
+  }
+
+  public int weightAt(int code, int pos) {
+    return weights[code][pos];
+  }
+
+  /**
+   * visit all records sorted by farm code and day
+   *
+   * @param visitor receiver of the records
+   */
+  public void forEach(MilkStore.RecordVisitor visitor) {
+    for (int code = 0; code < sizes.length; code++) {
+      int[] farmDays = days[code];
+      int[] farmWeights = weights[code];
+      for (int i = 0; i < sizes[code]; i++) {
+        visitor.visit(code, farmDays[i], farmWeights[i]);
+      }
+    }
+  }
+
+  /**
+   * @return all records materialized as farms, sorted by farm code and day
+   */
+  public List<Farm> toFarms() {
+    List<Farm> farms = new ArrayList<>(size);
+    forEach((code, day, weight) -> farms
+        .add(new Farm(names[code], LocalDate.ofEpochDay(day), weight)));
+    return farms;
+  }
+}
@@ -0,0 +1,612 @@
+package application;
+
+/**
+ * Columnar milk store: farm ids are interned into int codes and each farm keeps its epoch days and
+ * weights in two int arrays sorted by day, so the whole store is sorted by (farm, day). A record
+ * costs 8 bytes instead of a Farm, a LocalDate, a key string and a map entry.
+ *
+ * The store is safe for concurrent use. Farms are spread over a fixed number of lock stripes: a
+ * mutation holds the write lock of its farm's stripe, so loaders and edits on different farms run in
+ * parallel, and a reader holds the read lock while it looks at one farm. Every change increases the
+ * store version; snapshot() returns an immutable view of one version that is iterated without locks.
+ *
+ * The date and weight sorted indexes are built on the first sorted read and then kept up to date by
+ * every mutation, so later sorted reads never sort. A large batch drops them instead, they are
+ * rebuilt by the next sorted read.
+ */
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class MilkStore {
+
+  private static final int STRIPES = 32;
+  // batches larger than this drop the sorted indexes instead of updating them row by row
+  private static final int INDEX_BATCH_LIMIT = 4096;
+  // returned by removeRecord when there is no such record, outside the range of any int weight
+  private static final long NOT_FOUND = Long.MIN_VALUE;
+
+  private FarmDictionary dictionary;
+  private volatile FarmColumn[] columns;
+  private AtomicInteger size;
+  private AtomicLong version;
+  private ReentrantReadWriteLock[] stripes;
+  // the last snapshot, reused while the version is unchanged
+  private volatile MilkSnapshot snapshot;
+  // sorted indexes, null until first used, guarded by indexLock
+  private final Object indexLock = new Object();
+  private SortedIndex dateIndex;
+  private SortedIndex weightIndex;
+  // told about every change while the farm's stripe is held, null for none
+  private volatile MutationListener listener;
+
+  public MilkStore() {
+    dictionary = new FarmDictionary();
+    columns = new FarmColumn[16];
+    size = new AtomicInteger();
+    version = new AtomicLong();
+    stripes = new ReentrantReadWriteLock[STRIPES];
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new ReentrantReadWriteLock();
+    }
+  }
+
+  /**
+   * Told about every change of the store while the lock of the changed farm is held, so changes of
+   * one farm arrive in the order they were applied. A listener must be quick and must not call back
+   * into the store.
+   */
+  public interface MutationListener {
+    void inserted(int code, int day, int weight);
+
+    void updated(int code, int day, int weight);
+
+    void removed(int code, int day);
+
+    void cleared();
+  }
+
+  /**
+   * Receives the records of the store one by one
+   */
+  public interface RecordVisitor {
+    void visit(int code, int day, int weight);
+  }
+
+  /**
+   * add a new record, add that only if there is no record for the same farmId and day
+   *
+   * @param farmId given farm id
+   * @param day epoch day
+   * @param weight milk weight
+   * @return true when added successfully, otherwise false
+   */
+  public boolean insert(String farmId, int day, int weight) {
+    return insert(dictionary.intern(farmId), day, weight);
+  }
+
+  /**
+   * add a new record, add that only if there is no record for the same farm code and day
+   *
+   * @param code farm code in this store's dictionary
+   * @param day epoch day
+   * @param weight milk weight
+   * @return true when added successfully, otherwise false
+   */
+  public boolean insert(int code, int day, int weight) {
+    FarmColumn column = columnFor(code);
+    ReentrantReadWriteLock.WriteLock lock = stripeOf(code).writeLock();
+    lock.lock();
+    try {
+      int pos = column.indexOf(day);
+      if (pos >= 0) {
+        return false;
+      }
+      column.insertAt(-pos - 1, day, weight);
+      version.incrementAndGet();
+      indexInserted(code, day, weight);
+      MutationListener current = listener;
+      if (null != current) {
+        current.inserted(code, day, weight);
+      }
+    } finally {
+      lock.unlock();
+    }
+    size.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * add all rows of the given batch, a row is skipped when there is already a record for the same
+   * farmId and day. The rows of each farm are sorted by day outside the lock, then deduplicated and
+   * merged into the column in one pass under one lock acquisition.
+   *
+   * @param batch given batch
+   * @return the numbers of inserted, duplicate and conflicting rows
+   */
+  public BatchResult insertBatch(MilkBatch batch) {
+    FarmDictionary batchDictionary = batch.getDictionary();
+    int farmCount = batchDictionary.size();
+    // group the rows by farm with a counting sort on the batch codes
+    int[] starts = new int[farmCount + 1];
+    for (int i = 0; i < batch.size(); i++) {
+      starts[batch.codeAt(i) + 1]++;
+    }
+    int largest = 0;
+    for (int code = 0; code < farmCount; code++) {
+      largest = Math.max(largest, starts[code + 1]);
+      starts[code + 1] += starts[code];
+    }
+    int[] order = new int[batch.size()];
+    int[] next = Arrays.copyOf(starts, farmCount);
+    for (int i = 0; i < batch.size(); i++) {
+      order[next[batch.codeAt(i)]++] = i;
+    }
+
+    boolean indexed = batch.size() <= INDEX_BATCH_LIMIT;
+    if (!indexed) {
+      dropIndexes();
+    }
+    MutationListener current = listener;
+    BatchResult result = new BatchResult();
+    // reused by all farms, sized for the largest one
+    long[] keys = new long[largest];
+    int[] days = new int[largest];
+    int[] weights = new int[largest];
+    for (int batchCode = 0; batchCode < farmCount; batchCode++) {
+      int count = starts[batchCode + 1] - starts[batchCode];
+      if (0 == count) {
+        continue;
+      }
+      // sort by day, the batch position breaks ties so the first row of a day wins
+      for (int k = 0; k < count; k++) {
+        int row = order[starts[batchCode] + k];
+        keys[k] = (long) batch.dayAt(row) << 32 | row;
+      }
+      Arrays.sort(keys, 0, count);
+      for (int k = 0; k < count; k++) {
+        days[k] = (int) (keys[k] >> 32);
+        weights[k] = batch.weightAt((int) keys[k]);
+      }
+
+      int code = dictionary.intern(batchDictionary.nameOf(batchCode));
+      FarmColumn column = columnFor(code);
+      ReentrantReadWriteLock.WriteLock lock = stripeOf(code).writeLock();
+      lock.lock();
+      try {
+        int inserted = column.merge(days, weights, count, result);
+        if (inserted > 0) {
+          version.incrementAndGet();
+          size.addAndGet(inserted);
+          result.addInserted(inserted);
+          for (int k = 0; k < inserted; k++) {
+            if (indexed) {
+              indexInserted(code, days[k], weights[k]);
+            }
+            if (null != current) {
+              current.inserted(code, days[k], weights[k]);
+            }
+          }
+          if (!indexed) {
+            // an index built by a concurrent sorted read would miss these rows
+            dropIndexes();
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * replace the weight of the record with the same farmId and day, the lookup and the change are one
+   * atomic step
+   *
+   * @param farmId given farm id
+   * @param day epoch day
+   * @param weight new milk weight
+   * @return true when edit successfully, otherwise false
+   */
+  public boolean update(String farmId, int day, int weight) {
+    return update(dictionary.codeOf(farmId), day, weight);
+  }
+
+  /**
+   * replace the weight of the record with the same farm code and day, the lookup and the change are
+   * one atomic step
+   *
+   * @param code farm code in this store's dictionary, -1 for an unknown farm
+   * @param day epoch day
+   * @param weight new milk weight
+   * @return true when edit successfully, otherwise false
+   */
+  public boolean update(int code, int day, int weight) {
+    FarmColumn column = columnOf(code);
+    if (null == column) {
+      return false;
+    }
+    ReentrantReadWriteLock.WriteLock lock = stripeOf(code).writeLock();
+    lock.lock();
+    try {
+      int pos = column.indexOf(day);
+      if (pos < 0) {
+        return false;
+      }
+      int oldWeight = column.weightAt(pos);
+      column.setWeightAt(pos, weight);
+      version.incrementAndGet();
+      synchronized (indexLock) {
+        if (null != dateIndex) {
+          dateIndex.replace(code, day, oldWeight, weight);
+        }
+        if (null != weightIndex) {
+          weightIndex.replace(code, day, oldWeight, weight);
+        }
+      }
+      MutationListener current = listener;
+      if (null != current) {
+        current.updated(code, day, weight);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * remove the record with the same farmId and day
+   *
+   * @param farmId given farm id
+   * @param day epoch day
+   * @return removed farm if exists or null for non-exists.
+   */
+  public Farm remove(String farmId, int day) {
+    long weight = removeRecord(dictionary.codeOf(farmId), day);
+    return NOT_FOUND == weight ? null
+        : new Farm(farmId, LocalDate.ofEpochDay(day), (int) weight);
+  }
+
+  /**
+   * remove the record with the same farm code and day
+   *
+   * @param code farm code in this store's dictionary, -1 for an unknown farm
+   * @param day epoch day
+   * @return true when removed, false if there is no such record
+   */
+  public boolean remove(int code, int day) {
+    return NOT_FOUND != removeRecord(code, day);
+  }
+
+  /**
+   * @return the weight of the removed record or NOT_FOUND
+   */
+  private long removeRecord(int code, int day) {
+    FarmColumn column = columnOf(code);
+    if (null == column) {
+      return NOT_FOUND;
+    }
+    int weight;
+    ReentrantReadWriteLock.WriteLock lock = stripeOf(code).writeLock();
+    lock.lock();
+    try {
+      int pos = column.indexOf(day);
+      if (pos < 0) {
+        return NOT_FOUND;
+      }
+      weight = column.weightAt(pos);
+      column.removeAt(pos);
+      version.incrementAndGet();
+      synchronized (indexLock) {
+        if (null != dateIndex) {
+          dateIndex.remove(code, day, weight);
+        }
+        if (null != weightIndex) {
+          weightIndex.remove(code, day, weight);
+        }
+      }
+      MutationListener current = listener;
+      if (null != current) {
+        current.removed(code, day);
+      }
+    } finally {
+      lock.unlock();
+    }
+    size.decrementAndGet();
+    return weight;
+  }
+
+  /**
+   * look at the column of one farm while no writer can change it
+   *
+   * @param code given farm code
+   * @param reader called with the column, not called if the farm has no column
+   */
+  public void read(int code, Consumer<FarmColumn> reader) {
+    FarmColumn column = columnOf(code);
+    if (null == column) {
+      return;
+    }
+    ReentrantReadWriteLock.ReadLock lock = stripeOf(code).readLock();
+    lock.lock();
+    try {
+      reader.accept(column);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * read the record count of every farm one stripe at a time. Unlike a snapshot this leaves the
+   * columns unshared, so the next change of a farm does not copy its arrays, but farms of different
+   * stripes may be counted at different versions.
+   *
+   * @param out receives the record count of each farm code below its length, 0 for a code without
+   *        records
+   */
+  public void sizes(int[] out) {
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      ReentrantReadWriteLock.ReadLock lock = stripes[stripe].readLock();
+      lock.lock();
+      try {
+        for (int code = stripe; code < out.length; code += STRIPES) {
+          FarmColumn column = columnOf(code);
+          out[code] = null == column ? 0 : column.size();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * take an immutable view of the current version. The view shares the arrays of the columns, so it
+   * costs O(farms) and the same view is returned until the store changes.
+   *
+   * @return snapshot of all records
+   */
+  public MilkSnapshot snapshot() {
+    MilkSnapshot current = snapshot;
+    if (null != current && current.getVersion() == version.get()) {
+      return current;
+    }
+    return snapshot(null);
+  }
+
+  /**
+   * take a snapshot and run the action before any writer can change the store again, so the action
+   * happens exactly at the cut of the snapshot
+   *
+   * @param atCut action run while all writers are blocked, may be null
+   * @return snapshot of all records
+   */
+  public MilkSnapshot snapshot(Runnable atCut) {
+    // writers hold one stripe at a time, so holding all read locks gives a consistent cut
+    for (ReentrantReadWriteLock stripe : stripes) {
+      stripe.readLock().lock();
+    }
+    try {
+      MilkSnapshot current = snapshot;
+      if (null == current || current.getVersion() != version.get()) {
+        int farmCount = dictionary.size();
+        String[] names = new String[farmCount];
+        int[][] days = new int[farmCount][];
+        int[][] weights = new int[farmCount][];
+        int[] sizes = new int[farmCount];
+        for (int code = 0; code < farmCount; code++) {
+          names[code] = dictionary.nameOf(code);
+          FarmColumn column = columnOf(code);
+          if (null != column) {
+            column.share();
+            days[code] = column.getDays();
+            weights[code] = column.getWeights();
+            sizes[code] = column.size();
+          }
+        }
+        current =
+            new MilkSnapshot(version.get(), names, days, weights, sizes);
+        snapshot = current;
+      }
+      if (null != atCut) {
+        atCut.run();
+      }
+      return current;
+    } finally {
+      for (ReentrantReadWriteLock stripe : stripes) {
+        stripe.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * visit one page of the records sorted by date or weight. Records with the same value are in
+   * (farm code, day) order in both directions. The index of the field is built on the first call and
+   * maintained afterwards.
+   *
+   * @param field DATE or WEIGHT
+   * @param asc true for ascending
+   * @param offset the number of records skipped
+   * @param limit the max number of records visited
+   * @param visitor receiver of the records
+   */
+  public void sortedPage(FiledType field, boolean asc, int offset, int limit,
+      RecordVisitor visitor) {
+    withIndex(field, index -> index.page(asc, offset, limit, visitor::visit));
+  }
+
+  /**
+   * find the row of a record in the order of sortedPage by a binary search over the index of the
+   * field. A record that is not in the store gets the row it would be inserted at.
+   *
+   * @param field DATE or WEIGHT
+   * @param asc true for ascending
+   * @param code farm code
+   * @param day epoch day
+   * @param weight milk weight
+   * @return the number of records before the given one
+   */
+  public int sortedRank(FiledType field, boolean asc, int code, int day,
+      int weight) {
+    int[] rank = new int[1];
+    withIndex(field, index -> rank[0] = index.rank(asc, code, day, weight));
+    return rank[0];
+  }
+
+  /**
+   * run the reader on the index of the field while no writer changes it, building the index first
+   * if it is not used yet
+   */
+  private void withIndex(FiledType field, Consumer<SortedIndex> reader) {
+    if (FiledType.DATE != field && FiledType.WEIGHT != field) {
+      throw new IllegalArgumentException("No sorted index for " + field);
+    }
+    synchronized (indexLock) {
+      SortedIndex index = FiledType.DATE == field ? dateIndex : weightIndex;
+      if (null != index) {
+        reader.accept(index);
+        return;
+      }
+    }
+    // writers update the indexes while holding their stripe, so holding all read locks keeps the
+    // built index and the store in step
+    for (ReentrantReadWriteLock stripe : stripes) {
+      stripe.readLock().lock();
+    }
+    try {
+      synchronized (indexLock) {
+        SortedIndex index = FiledType.DATE == field ? dateIndex : weightIndex;
+        if (null == index) {
+          index = SortedIndex.build(snapshot(), field);
+          if (FiledType.DATE == field) {
+            dateIndex = index;
+          } else {
+            weightIndex = index;
+          }
+        }
+        reader.accept(index);
+      }
+    } finally {
+      for (ReentrantReadWriteLock stripe : stripes) {
+        stripe.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * visit all records of the current snapshot sorted by farm code and day without copying them
+   *
+   * @param visitor receiver of the records
+   */
+  public void forEach(RecordVisitor visitor) {
+    snapshot().forEach(visitor);
+  }
+
+  /**
+   * @return all records materialized as farms, sorted by farm code and day
+   */
+  public List<Farm> toFarms() {
+    return snapshot().toFarms();
+  }
+
+  /**
+   * @return the store version, every change of the store increases it
+   */
+  public long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * @return the number of records
+   */
+  public int size() {
+    return size.get();
+  }
+
+  public FarmDictionary getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * @param listener told about every later change, null to stop telling
+   */
+  public void setMutationListener(MutationListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * remove all records, must not run concurrently with other operations
+   */
+  public synchronized void clear() {
+    dictionary.clear();
+    columns = new FarmColumn[16];
+    size.set(0);
+    version.incrementAndGet();
+    snapshot = null;
+    dropIndexes();
+    MutationListener current = listener;
+    if (null != current) {
+      current.cleared();
+    }
+  }
+
+  private void dropIndexes() {
+    synchronized (indexLock) {
+      dateIndex = null;
+      weightIndex = null;
+    }
+  }
+
+  /**
+   * add a record that is now in its column to the existing indexes, called under the farm's write
+   * lock
+   */
+  private void indexInserted(int code, int day, int weight) {
+    synchronized (indexLock) {
+      if (null != dateIndex) {
+        dateIndex.insert(code, day, weight);
+      }
+      if (null != weightIndex) {
+        weightIndex.insert(code, day, weight);
+      }
+    }
+  }
+
+  private ReentrantReadWriteLock stripeOf(int code) {
+    return stripes[code & (STRIPES - 1)];
+  }
+
+  private FarmColumn columnOf(int code) {
+    FarmColumn[] current = columns;
+    return code < 0 || code >= current.length ? null : current[code];
+  }
+
+  private FarmColumn columnFor(int code) {
+    FarmColumn column = columnOf(code);
+    if (null != column) {
+      return column;
+    }
+    synchronized (this) {
+      FarmColumn[] current = columns;
+      if (code >= current.length) {
+        current = Arrays.copyOf(current,
+            Math.max(current.length * 2, Integer.highestOneBit(code) << 1));
+      } else if (null != current[code]) {
+        return current[code];
+      } else {
+        current = current.clone();
+      }
+      current[code] = new FarmColumn();
+      // publish a new array so readers never see a half initialized slot
+      columns = current;
+      return current[code];
+    }
+  }
+}
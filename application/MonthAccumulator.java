@@ -0,0 +1,97 @@
+package application;
+
+/**
+ * Primitive per-month accumulator of total weight, number of records, min and max weight, used to
+ * build a report from one pass over the data
+ */
+
+import java.util.Arrays;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class MonthAccumulator {
+
+  private long[] sums;
+  private int[] counts;
+  private int[] mins;
+  private int[] maxs;
+
+  public MonthAccumulator() {
+    // index 0 is unused so months are indexed 1-12
+    sums = new long[13];
+    counts = new int[13];
+    mins = new int[13];
+    maxs = new int[13];
+  }
+
+  /**
+   * account one record
+   *
+   * @param month given month, from 1 to 12
+   * @param weight milk weight
+   */
+  public void add(int month, int weight) {
+    add(month, weight, 1, weight, weight);
+  }
+
+  /**
+   * account an aggregate of several records of the month
+   *
+   * @param month given month, from 1 to 12
+   * @param sum total weight
+   * @param count number of records, nothing is accounted when 0
+   * @param min min weight
+   * @param max max weight
+   */
+  public void add(int month, long sum, int count, int min, int max) {
+    if (0 == count) {
+      return;
+    }
+    mins[month] = 0 == counts[month] ? min : Math.min(mins[month], min);
+    maxs[month] = 0 == counts[month] ? max : Math.max(maxs[month], max);
+    sums[month] += sum;
+    counts[month] += count;
+  }
+
+  /**
+   * account all months of the other accumulator
+   *
+   * @return this accumulator
+   */
+  public MonthAccumulator merge(MonthAccumulator other) {
+    for (int month = 1; month <= 12; month++) {
+      add(month, other.sums[month], other.counts[month], other.mins[month],
+          other.maxs[month]);
+    }
+    return this;
+  }
+
+  public long getSum(int month) {
+    return sums[month];
+  }
+
+  public int getCount(int month) {
+    return counts[month];
+  }
+
+  public int getMin(int month) {
+    return mins[month];
+  }
+
+  public int getMax(int month) {
+    return maxs[month];
+  }
+
+  /**
+   * @return the average weight of the month, 0 if the month has no record
+   */
+  public double getAvg(int month) {
+    return 0 == counts[month] ? 0D : (double) sums[month] / counts[month];
+  }
+
+  public void clear() {
+    Arrays.fill(sums, 0);
+    Arrays.fill(counts, 0);
+  }
+}
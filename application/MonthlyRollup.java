@@ -0,0 +1,179 @@
+package application;
+
+/**
+ * Running aggregates of one farm for each month: total weight, number of records, min and max
+ * weight and the days holding the min and max
+ */
+
+import java.util.Arrays;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class MonthlyRollup {
+
+  private static final int SUM = 0;
+  private static final int COUNT = 1;
+  private static final int MIN = 2;
+  private static final int MAX = 3;
+  private static final int MIN_DAY = 4;
+  private static final int MAX_DAY = 5;
+  private static final int FIELDS = 6;
+
+  private int firstYear;
+  // one array per year, 12 months of FIELDS values each, null for a year without records
+  private long[][] years;
+
+  public MonthlyRollup() {
+    years = new long[0][];
+  }
+
+  /**
+   * account a new record
+   *
+   * @param day epoch day
+   * @param weight milk weight
+   */
+  public void add(int day, int weight) {
+    int monthIndex = Util.monthIndexOf(day);
+    long[] cells = cellsFor(Math.floorDiv(monthIndex, 12));
+    int base = Math.floorMod(monthIndex, 12) * FIELDS;
+    if (0 == cells[base + COUNT] || weight < cells[base + MIN]) {
+      cells[base + MIN] = weight;
+      cells[base + MIN_DAY] = day;
+    }
+    if (0 == cells[base + COUNT] || weight > cells[base + MAX]) {
+      cells[base + MAX] = weight;
+      cells[base + MAX_DAY] = day;
+    }
+    cells[base + SUM] += weight;
+    cells[base + COUNT]++;
+  }
+
+  /**
+   * account a removed record
+   *
+   * @return true if the min or max of the month was the removed record and must be rebuilt
+   */
+  public boolean remove(int day, int weight) {
+    int monthIndex = Util.monthIndexOf(day);
+    long[] cells = years[Math.floorDiv(monthIndex, 12) - firstYear];
+    int base = Math.floorMod(monthIndex, 12) * FIELDS;
+    cells[base + SUM] -= weight;
+    cells[base + COUNT]--;
+    return cells[base + COUNT] > 0
+        && (day == cells[base + MIN_DAY] || day == cells[base + MAX_DAY]);
+  }
+
+  /**
+   * account a record whose weight changed
+   *
+   * @return true if the min or max of the month can not be updated in place and must be rebuilt
+   */
+  public boolean replace(int day, int oldWeight, int newWeight) {
+    int monthIndex = Util.monthIndexOf(day);
+    long[] cells = years[Math.floorDiv(monthIndex, 12) - firstYear];
+    int base = Math.floorMod(monthIndex, 12) * FIELDS;
+    cells[base + SUM] += (long) newWeight - oldWeight;
+    if ((day == cells[base + MIN_DAY] && newWeight > oldWeight)
+        || (day == cells[base + MAX_DAY] && newWeight < oldWeight)) {
+      return true;
+    }
+    if (newWeight < cells[base + MIN]) {
+      cells[base + MIN] = newWeight;
+      cells[base + MIN_DAY] = day;
+    } else if (day == cells[base + MIN_DAY]) {
+      cells[base + MIN] = newWeight;
+    }
+    if (newWeight > cells[base + MAX]) {
+      cells[base + MAX] = newWeight;
+      cells[base + MAX_DAY] = day;
+    } else if (day == cells[base + MAX_DAY]) {
+      cells[base + MAX] = newWeight;
+    }
+    return false;
+  }
+
+  /**
+   * overwrite the min and max of a month, used after the month has been rescanned
+   */
+  public void resetMinMax(int monthIndex, int min, int minDay, int max,
+      int maxDay) {
+    long[] cells = years[Math.floorDiv(monthIndex, 12) - firstYear];
+    int base = Math.floorMod(monthIndex, 12) * FIELDS;
+    cells[base + MIN] = min;
+    cells[base + MIN_DAY] = minDay;
+    cells[base + MAX] = max;
+    cells[base + MAX_DAY] = maxDay;
+  }
+
+  /**
+   * @param year given year
+   * @param month given month, from 1 to 12
+   * @return the number of records in the month
+   */
+  public int getCount(int year, int month) {
+    long[] cells = cellsOf(year);
+    return null == cells ? 0 : (int) cells[(month - 1) * FIELDS + COUNT];
+  }
+
+  /**
+   * @return the total weight of the month
+   */
+  public long getSum(int year, int month) {
+    long[] cells = cellsOf(year);
+    return null == cells ? 0 : cells[(month - 1) * FIELDS + SUM];
+  }
+
+  /**
+   * @return the min weight of the month, only meaningful when the count is positive
+   */
+  public int getMin(int year, int month) {
+    return (int) cellsOf(year)[(month - 1) * FIELDS + MIN];
+  }
+
+  /**
+   * @return the max weight of the month, only meaningful when the count is positive
+   */
+  public int getMax(int year, int month) {
+    return (int) cellsOf(year)[(month - 1) * FIELDS + MAX];
+  }
+
+  /**
+   * @return the epoch day holding the min weight of the month
+   */
+  public int getMinDay(int year, int month) {
+    return (int) cellsOf(year)[(month - 1) * FIELDS + MIN_DAY];
+  }
+
+  /**
+   * @return the epoch day holding the max weight of the month
+   */
+  public int getMaxDay(int year, int month) {
+    return (int) cellsOf(year)[(month - 1) * FIELDS + MAX_DAY];
+  }
+
+  private long[] cellsOf(int year) {
+    int i = year - firstYear;
+    return i < 0 || i >= years.length ? null : years[i];
+  }
+
+  private long[] cellsFor(int year) {
+    if (0 == years.length) {
+      firstYear = year;
+      years = new long[1][];
+    } else if (year < firstYear) {
+      long[][] grown = new long[years.length + firstYear - year][];
+      System.arraycopy(years, 0, grown, firstYear - year, years.length);
+      years = grown;
+      firstYear = year;
+    } else if (year - firstYear >= years.length) {
+      years = Arrays.copyOf(years, year - firstYear + 1);
+    }
+    int i = year - firstYear;
+    if (null == years[i]) {
+      years[i] = new long[12 * FIELDS];
+    }
+    return years[i];
+  }
+}
@@ -0,0 +1,80 @@
+package application;
+
+/**
+ * Quantile sketches of one farm for each month. A range query merges the sketches of its whole
+ * months and adds the records of the two partial months at its ends, so percentiles over long
+ * ranges never sort the records.
+ */
+
+import java.util.Arrays;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class MonthlySketches {
+
+  private int firstMonth;
+  // indexed by month index - firstMonth, null for a month without records
+  private QuantileSketch[] months;
+
+  /**
+   * build the sketches over all records of the column
+   *
+   * @param column given non-empty farm column
+   */
+  public MonthlySketches(FarmColumn column) {
+    firstMonth = Util.monthIndexOf(column.dayAt(0));
+    int lastMonth = Util.monthIndexOf(column.dayAt(column.size() - 1));
+    months = new QuantileSketch[lastMonth - firstMonth + 1];
+    for (int i = 0; i < column.size(); i++) {
+      add(column.dayAt(i), column.weightAt(i));
+    }
+  }
+
+  /**
+   * account a new record
+   */
+  public void add(int day, int weight) {
+    int monthIndex = Util.monthIndexOf(day);
+    if (monthIndex < firstMonth) {
+      QuantileSketch[] grown =
+          new QuantileSketch[months.length + firstMonth - monthIndex];
+      System.arraycopy(months, 0, grown, firstMonth - monthIndex,
+          months.length);
+      months = grown;
+      firstMonth = monthIndex;
+    } else if (monthIndex - firstMonth >= months.length) {
+      months = Arrays.copyOf(months, monthIndex - firstMonth + 1);
+    }
+    int i = monthIndex - firstMonth;
+    if (null == months[i]) {
+      months[i] = new QuantileSketch();
+    }
+    months[i].add(weight);
+  }
+
+  /**
+   * account a removed record
+   */
+  public void remove(int day, int weight) {
+    months[Util.monthIndexOf(day) - firstMonth].remove(weight);
+  }
+
+  /**
+   * account a record whose weight changed
+   */
+  public void replace(int day, int oldWeight, int newWeight) {
+    QuantileSketch sketch = months[Util.monthIndexOf(day) - firstMonth];
+    sketch.remove(oldWeight);
+    sketch.add(newWeight);
+  }
+
+  /**
+   * @param monthIndex year * 12 + month - 1
+   * @return the sketch of the month, null if the month has no records
+   */
+  public QuantileSketch get(int monthIndex) {
+    int i = monthIndex - firstMonth;
+    return i < 0 || i >= months.length ? null : months[i];
+  }
+}
@@ -0,0 +1,171 @@
+package application;
+
+/**
+ * Fork/join aggregation over the farms of a store. The farm codes are split recursively into ranges
+ * of about the same number of records; each leaf task folds its farms into its own accumulator and
+ * the accumulators are merged while the tasks join. Below the threshold, or with a parallelism of
+ * one, everything runs sequentially on the calling thread. Interrupting the calling thread cancels
+ * the aggregation at the next farm with a CancellationException.
+ *
+ * The default instance takes its parallelism from the system property milkweight.parallelism and its
+ * threshold from milkweight.parallelThreshold.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class ParallelAggregator {
+
+  // the min number of records worth a task of its own
+  public static final int DEFAULT_THRESHOLD = 1 << 15;
+
+  private static final ParallelAggregator DEFAULT = new ParallelAggregator(
+      Integer.getInteger("milkweight.parallelism",
+          Runtime.getRuntime().availableProcessors()),
+      Integer.getInteger("milkweight.parallelThreshold", DEFAULT_THRESHOLD));
+
+  private int parallelism;
+  private int threshold;
+  private volatile ForkJoinPool pool;
+
+  /**
+   * @param parallelism the max number of worker threads
+   * @param threshold the min number of records worth a task of its own
+   */
+  public ParallelAggregator(int parallelism, int threshold) {
+    this.parallelism = Math.max(1, parallelism);
+    this.threshold = Math.max(1, threshold);
+  }
+
+  public static ParallelAggregator getDefault() {
+    return DEFAULT;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * run the task once for every farm code below farmCount, possibly in parallel. The task must only
+   * write state of its own farm.
+   *
+   * @param store given store
+   * @param farmCount the number of farm codes
+   * @param farmTask called with each farm code
+   */
+  public void forEachFarm(MilkStore store, int farmCount,
+      IntConsumer farmTask) {
+    reduce(store, farmCount, () -> null,
+        (nothing, code) -> farmTask.accept(code), (left, right) -> null);
+  }
+
+  /**
+   * fold the farm codes below farmCount into accumulators and merge them
+   *
+   * @param store given store
+   * @param farmCount the number of farm codes
+   * @param newAccumulator creates an empty accumulator for a task
+   * @param farmTask folds one farm code into the accumulator of its task
+   * @param merge merges two accumulators, may return one of them
+   * @param <A> accumulator type
+   * @return the accumulator of all farms
+   */
+  public <A> A reduce(MilkStore store, int farmCount,
+      Supplier<A> newAccumulator, ObjIntConsumer<A> farmTask,
+      BinaryOperator<A> merge) {
+    // split by record counts that may be slightly stale, the tasks read the live store
+    int[] sizes = new int[farmCount];
+    store.sizes(sizes);
+    long[] starts = new long[farmCount + 1];
+    for (int code = 0; code < farmCount; code++) {
+      starts[code + 1] = starts[code] + sizes[code];
+    }
+    FarmRangeTask<A> task = new FarmRangeTask<>(Thread.currentThread(), starts,
+        0, farmCount, newAccumulator, farmTask, merge);
+    if (1 == parallelism || starts[farmCount] <= threshold) {
+      return task.compute();
+    }
+    return getPool().invoke(task);
+  }
+
+  private ForkJoinPool getPool() {
+    ForkJoinPool current = pool;
+    if (null == current) {
+      synchronized (this) {
+        current = pool;
+        if (null == current) {
+          current = new ForkJoinPool(parallelism);
+          pool = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Folds the farms of a code range, splitting it while it holds more records than the threshold
+   */
+  private class FarmRangeTask<A> extends RecursiveTask<A> {
+    private static final long serialVersionUID = 1L;
+
+    // the thread that asked for the aggregation, its interrupt cancels all tasks
+    private Thread caller;
+    private long[] starts;
+    private int from;
+    private int to;
+    private Supplier<A> newAccumulator;
+    private ObjIntConsumer<A> farmTask;
+    private BinaryOperator<A> merge;
+
+    FarmRangeTask(Thread caller, long[] starts, int from, int to,
+        Supplier<A> newAccumulator, ObjIntConsumer<A> farmTask,
+        BinaryOperator<A> merge) {
+      this.caller = caller;
+      this.starts = starts;
+      this.from = from;
+      this.to = to;
+      this.newAccumulator = newAccumulator;
+      this.farmTask = farmTask;
+      this.merge = merge;
+    }
+
+    @Override
+    protected A compute() {
+      if (to - from <= 1 || starts[to] - starts[from] <= threshold
+          || 1 == parallelism) {
+        A accumulator = newAccumulator.get();
+        for (int code = from; code < to; code++) {
+          if (caller.isInterrupted()) {
+            throw new CancellationException("Aggregation cancelled");
+          }
+          farmTask.accept(accumulator, code);
+        }
+        return accumulator;
+      }
+      // split where half of the records of the range are on each side
+      long half = (starts[from] + starts[to]) / 2;
+      int mid = Arrays.binarySearch(starts, from + 1, to, half);
+      mid = Math.max(from + 1, Math.min(to - 1, mid < 0 ? -mid - 1 : mid));
+      FarmRangeTask<A> left = new FarmRangeTask<>(caller, starts, from, mid,
+          newAccumulator, farmTask, merge);
+      FarmRangeTask<A> right = new FarmRangeTask<>(caller, starts, mid, to,
+          newAccumulator, farmTask, merge);
+      left.fork();
+      A rightResult = right.compute();
+      return merge.apply(left.join(), rightResult);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package application;
+
+/**
+ * Mergeable summary of milk weights that answers any quantile exactly. Weights are integers and a
+ * farm has at most one record a day, so the summary counts every distinct weight: a month holds at
+ * most 31 of them and a range of months never more than its records. Unlike t-digest or KLL a
+ * record can be removed again by decrementing its count, which lets the monthly summaries follow
+ * edits and removals of the store. The counts are kept sparse in two arrays sorted by weight.
+ */
+
+import java.util.Arrays;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class QuantileSketch {
+
+  private int[] weights = new int[8];
+  private int[] counts = new int[8];
+  private int size;
+  private long count;
+  // reused by merge, swapped with the arrays above
+  private int[] mergedWeights = new int[0];
+  private int[] mergedCounts = new int[0];
+
+  /**
+   * account a record
+   */
+  public void add(int weight) {
+    add(weight, 1);
+  }
+
+  /**
+   * forget a record that was added before
+   */
+  public void remove(int weight) {
+    add(weight, -1);
+  }
+
+  /**
+   * account the records of a slice of weights, sorted first and merged in one pass instead of
+   * inserted one by one
+   *
+   * @param values given weights
+   * @param from the inclusive first position
+   * @param to the exclusive last position
+   */
+  public void addAll(int[] values, int from, int to) {
+    if (from >= to) {
+      return;
+    }
+    int[] distinct = Arrays.copyOfRange(values, from, to);
+    Arrays.sort(distinct);
+    int[] distinctCounts = new int[distinct.length];
+    int n = 0;
+    for (int i = 0; i < distinct.length; i++) {
+      if (n > 0 && distinct[n - 1] == distinct[i]) {
+        distinctCounts[n - 1]++;
+      } else {
+        distinct[n] = distinct[i];
+        distinctCounts[n++] = 1;
+      }
+    }
+    merge(distinct, distinctCounts, n, to - from);
+  }
+
+  /**
+   * account all records of the other sketch in one pass over both sorted arrays
+   */
+  public void merge(QuantileSketch other) {
+    merge(other.weights, other.counts, other.size, other.count);
+  }
+
+  public void clear() {
+    size = 0;
+    count = 0;
+  }
+
+  private void merge(int[] otherWeights, int[] otherCounts, int otherSize,
+      long otherCount) {
+    if (0 == otherSize) {
+      return;
+    }
+    int capacity = size + otherSize;
+    if (mergedWeights.length < capacity) {
+      mergedWeights = new int[Math.max(capacity, weights.length)];
+      mergedCounts = new int[mergedWeights.length];
+    }
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < size && j < otherSize) {
+      if (weights[i] < otherWeights[j]) {
+        mergedWeights[k] = weights[i];
+        mergedCounts[k++] = counts[i++];
+      } else if (weights[i] > otherWeights[j]) {
+        mergedWeights[k] = otherWeights[j];
+        mergedCounts[k++] = otherCounts[j++];
+      } else {
+        mergedWeights[k] = weights[i];
+        mergedCounts[k++] = counts[i++] + otherCounts[j++];
+      }
+    }
+    System.arraycopy(weights, i, mergedWeights, k, size - i);
+    System.arraycopy(counts, i, mergedCounts, k, size - i);
+    k += size - i;
+    System.arraycopy(otherWeights, j, mergedWeights, k, otherSize - j);
+    System.arraycopy(otherCounts, j, mergedCounts, k, otherSize - j);
+    k += otherSize - j;
+    int[] swap = weights;
+    weights = mergedWeights;
+    mergedWeights = swap;
+    swap = counts;
+    counts = mergedCounts;
+    mergedCounts = swap;
+    size = k;
+    count += otherCount;
+  }
+
+  /**
+   * @return the number of records
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @param q quantile between 0 and 1
+   * @return the weight at the quantile, NaN when there is no record
+   */
+  public double quantile(double q) {
+    if (q < 0 || q > 1) {
+      throw new IllegalArgumentException("Illegal quantile:" + q);
+    }
+    if (0 == count) {
+      return Double.NaN;
+    }
+    // the lower quantile: the record at rank floor(q * (count - 1)) in weight order
+    long rank = (long) (q * (count - 1));
+    long seen = 0;
+    for (int i = 0; i < size; i++) {
+      seen += counts[i];
+      if (seen > rank) {
+        return weights[i];
+      }
+    }
+    return weights[size - 1];
+  }
+
+  private void add(int weight, int delta) {
+    int pos = Arrays.binarySearch(weights, 0, size, weight);
+    if (pos >= 0) {
+      counts[pos] += delta;
+      if (0 == counts[pos]) {
+        System.arraycopy(weights, pos + 1, weights, pos, size - pos - 1);
+        System.arraycopy(counts, pos + 1, counts, pos, size - pos - 1);
+        size--;
+      }
+    } else {
+      pos = -pos - 1;
+      if (size == weights.length) {
+        weights = Arrays.copyOf(weights, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+      System.arraycopy(weights, pos, weights, pos + 1, size - pos);
+      System.arraycopy(counts, pos, counts, pos + 1, size - pos);
+      weights[pos] = weight;
+      counts[pos] = delta;
+      size++;
+    }
+    count += delta;
+  }
+}
@@ -0,0 +1,94 @@
+package application;
+
+/**
+ * Bounded LRU cache of query responses. Keys carry the store version, so a change of the data
+ * makes the old entries unreachable and they age out. Concurrent requests for the same missing key
+ * wait for one computation instead of each aggregating the data again.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class QueryCache {
+
+  private Map<String, CompletableFuture<byte[]>> entries;
+  private AtomicLong hits = new AtomicLong();
+  private AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param capacity the max number of cached responses
+   */
+  public QueryCache(int capacity) {
+    entries = new LinkedHashMap<String, CompletableFuture<byte[]>>(16, 0.75f,
+        true) {
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<String, CompletableFuture<byte[]>> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * @param query canonical query
+   * @param version store version the response is computed from
+   * @param compute computes the response on a miss
+   * @return the cached or computed response
+   * @throws RuntimeException thrown by the computation, failed responses are not cached
+   */
+  public byte[] get(String query, long version, Supplier<byte[]> compute) {
+    String key = query + "@" + version;
+    CompletableFuture<byte[]> future;
+    boolean owner = false;
+    synchronized (this) {
+      future = entries.get(key);
+      if (null == future) {
+        future = new CompletableFuture<>();
+        entries.put(key, future);
+        owner = true;
+      }
+    }
+    if (!owner) {
+      hits.incrementAndGet();
+      try {
+        return future.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof Error) {
+          throw (Error) e.getCause();
+        }
+        throw (RuntimeException) e.getCause();
+      }
+    }
+    misses.incrementAndGet();
+    try {
+      byte[] response = compute.get();
+      future.complete(response);
+      return response;
+    } catch (RuntimeException | Error e) {
+      synchronized (this) {
+        entries.remove(key, future);
+      }
+      future.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+}
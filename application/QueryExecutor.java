@@ -0,0 +1,128 @@
+package application;
+
+/**
+ * Runs report queries on a background thread so the window stays responsive. Only the latest query
+ * counts: submitting a different query cancels the running one by interrupting it, submitting the
+ * query that is already running just waits for it, and the last result is reused while its key,
+ * which should include the store version, stays the same. Results are handed to the result
+ * executor, the JavaFX application thread for the GUI, and dropped when a later query superseded
+ * them in the meantime.
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class QueryExecutor {
+
+  private ExecutorService worker;
+  private Executor resultExecutor;
+  // guarded by this, a query may only deliver while its generation is the current one
+  private long generation;
+  private Object runningKey;
+  private Future<?> running;
+  private Object cachedKey;
+  private Object cachedResult;
+
+  /**
+   * @param resultExecutor runs the result callbacks, e.g. Platform::runLater
+   */
+  public QueryExecutor(Executor resultExecutor) {
+    this.resultExecutor = resultExecutor;
+    worker = Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task, "milkweight-query");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * run the query in the background unless it is running already or its result is known
+   *
+   * @param key identifies the query and the data it reads
+   * @param query given query
+   * @param onResult called with the result on the result executor
+   * @param onError called with the failure on the result executor
+   * @param <T> result type
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized <T> void submit(Object key, Callable<T> query,
+      Consumer<? super T> onResult, Consumer<Throwable> onError) {
+    if (null != running && key.equals(runningKey)) {
+      return;
+    }
+    cancel();
+    long id = ++generation;
+    if (key.equals(cachedKey)) {
+      T result = (T) cachedResult;
+      resultExecutor.execute(() -> deliver(id, () -> onResult.accept(result)));
+      return;
+    }
+    runningKey = key;
+    running = worker.submit(() -> {
+      T result;
+      try {
+        result = query.call();
+      } catch (Throwable e) {
+        finished(id, null, null);
+        resultExecutor.execute(() -> deliver(id, () -> onError.accept(e)));
+        return;
+      }
+      finished(id, key, result);
+      resultExecutor.execute(() -> deliver(id, () -> onResult.accept(result)));
+    });
+  }
+
+  /**
+   * cancel the running query and drop its result
+   *
+   * @return true if a query was running
+   */
+  public synchronized boolean cancel() {
+    Future<?> current = running;
+    if (null == current) {
+      return false;
+    }
+    generation++;
+    running = null;
+    runningKey = null;
+    // the aggregation checks the interrupt between farms
+    current.cancel(true);
+    return true;
+  }
+
+  /**
+   * stop the background thread
+   */
+  public void shutdown() {
+    cancel();
+    worker.shutdownNow();
+  }
+
+  private synchronized void finished(long id, Object key, Object result) {
+    if (id != generation) {
+      return;
+    }
+    running = null;
+    runningKey = null;
+    if (null != key) {
+      cachedKey = key;
+      cachedResult = result;
+    }
+  }
+
+  private void deliver(long id, Runnable callback) {
+    synchronized (this) {
+      if (id != generation) {
+        return;
+      }
+    }
+    callback.run();
+  }
+}
@@ -0,0 +1,76 @@
+package application;
+
+/**
+ * Mutable total weight, number of records, min and max weight of the records in a date range
+ */
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class RangeStats {
+
+  private long sum;
+  private int count;
+  private int min;
+  private int max;
+
+  public RangeStats() {
+    clear();
+  }
+
+  /**
+   * account one record
+   *
+   * @param weight milk weight
+   */
+  public void add(int weight) {
+    add(weight, 1, weight, weight);
+  }
+
+  /**
+   * account an aggregate of several records
+   *
+   * @param sum total weight
+   * @param count number of records, nothing is accounted when 0
+   * @param min min weight
+   * @param max max weight
+   */
+  public void add(long sum, int count, int min, int max) {
+    if (0 == count) {
+      return;
+    }
+    this.sum += sum;
+    this.count += count;
+    this.min = Math.min(this.min, min);
+    this.max = Math.max(this.max, max);
+  }
+
+  public void clear() {
+    sum = 0;
+    count = 0;
+    min = Integer.MAX_VALUE;
+    max = Integer.MIN_VALUE;
+  }
+
+  public long getSum() {
+    return sum;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * @return the min weight, only meaningful when the count is positive
+   */
+  public int getMin() {
+    return min;
+  }
+
+  /**
+   * @return the max weight, only meaningful when the count is positive
+   */
+  public int getMax() {
+    return max;
+  }
+}
@@ -0,0 +1,343 @@
+package application;
+
+/**
+ * Embedded HTTP/JSON query service over the DataManager reports, built on the JDK's
+ * com.sun.net.httpserver. Responses are cached by query and store version, so polling dashboards
+ * reuse one aggregation until the data changes.
+ *
+ * Endpoints (GET, json): /farm?id=&year=, /annual?year=, /monthly?year=&month=,
+ * /range?start=&end=, /farms?offset=&limit=, /top-farms?start=&end=&k=, /top-days?start=&end=&k=
+ * and /percentiles?start=&end=. The annual, monthly and range reports take sort=id|weight and
+ * order=asc|desc, the farms listing takes sort=id|date|weight. /metrics returns the text dump of
+ * the metrics.
+ *
+ * The service has no authentication, so it only listens on the loopback address unless --host names
+ * another one.
+ *
+ * Usage: java -cp executable.jar application.ReportServer [--host 127.0.0.1] [--port 8080]
+ * [--threads 64] [--cache 256] file or folder...
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class ReportServer {
+
+  private static final int DEFAULT_LIMIT = 1000;
+  private static final LatencyHistogram REQUEST_LATENCY =
+      Metrics.histogram("http.request");
+  private static final String USAGE = String.join("\n",
+      "Usage: java -cp executable.jar application.ReportServer [options]"
+          + " <file or folder>...",
+      "Options:",
+      "  --host <address>  address to listen on, 127.0.0.1 by default,"
+          + " 0.0.0.0 for all",
+      "  --port <port>     listening port, 8080 by default",
+      "  --threads <n>     request threads, 4 per core by default",
+      "  --cache <n>       the max number of cached responses, 256 by default");
+
+  private HttpServer server;
+  private ExecutorService executor;
+  private QueryCache cache;
+  private DataManager dataManager = new DataManager();
+
+  /**
+   * listen on the loopback address only
+   *
+   * @param port listening port, 0 for any free port
+   * @param threads number of request threads
+   * @param cacheSize the max number of cached responses
+   * @throws IOException if the port can not be bound
+   */
+  public ReportServer(int port, int threads, int cacheSize)
+      throws IOException {
+    this(InetAddress.getLoopbackAddress().getHostAddress(), port, threads,
+        cacheSize);
+  }
+
+  /**
+   * @param host address to listen on, "0.0.0.0" for all addresses
+   * @param port listening port, 0 for any free port
+   * @param threads number of request threads
+   * @param cacheSize the max number of cached responses
+   * @throws IOException if the port can not be bound
+   * @throws IllegalArgumentException if the host can not be resolved
+   */
+  public ReportServer(String host, int port, int threads, int cacheSize)
+      throws IOException {
+    InetSocketAddress address = new InetSocketAddress(host, port);
+    if (address.isUnresolved()) {
+      throw new IllegalArgumentException("Unknown host:" + host);
+    }
+    cache = new QueryCache(cacheSize);
+    server = HttpServer.create(address, 0);
+    // a fixed pool of platform threads, the Java 11 target has no virtual threads
+    executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "milk-http");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+  }
+
+  public static void main(String[] args) throws Exception {
+    String host = InetAddress.getLoopbackAddress().getHostAddress();
+    int port = 8080;
+    int threads = 4 * Runtime.getRuntime().availableProcessors();
+    int cacheSize = 256;
+    List<String> paths = new ArrayList<>();
+    ReportServer reportServer;
+    List<File> files;
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--host":
+            host = value(args, ++i);
+            break;
+          case "--port":
+            port = Util.parseAsInt(value(args, ++i));
+            break;
+          case "--threads":
+            threads = Util.parseAsInt(value(args, ++i));
+            break;
+          case "--cache":
+            cacheSize = Util.parseAsInt(value(args, ++i));
+            break;
+          default:
+            if (args[i].startsWith("--")) {
+              throw new IllegalArgumentException("Illegal option:" + args[i]);
+            }
+            paths.add(args[i]);
+        }
+      }
+      files = Cli.listFiles(paths);
+      // bind before loading, so a taken port fails at once
+      reportServer = new ReportServer(host, port, threads, cacheSize);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      System.exit(2);
+      return;
+    }
+    for (String error : Cli.load(files)) {
+      System.err.println(error);
+    }
+    reportServer.start();
+    Metrics.registerMBean();
+    System.out.println("Listening on " + host + ":" + reportServer.getPort()
+        + ", " + CheeseFactory.getStore().size() + " records");
+  }
+
+  private static String value(String[] args, int i) {
+    if (i >= args.length) {
+      throw new IllegalArgumentException("Missing value of " + args[i - 1]);
+    }
+    return args[i];
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public QueryCache getCache() {
+    return cache;
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    long started = Metrics.start();
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        send(exchange, 405, error("Only GET is supported"), -1);
+        return;
+      }
+      String path = exchange.getRequestURI().getPath();
+      if ("/metrics".equals(path)) {
+        send(exchange, 200, "text/plain; charset=utf-8",
+            Metrics.dump().getBytes(StandardCharsets.UTF_8), -1);
+        return;
+      }
+      Map<String, String> params =
+          parseQuery(exchange.getRequestURI().getRawQuery());
+      // read the version before the report, so an entry never holds data older than its key
+      long version = CheeseFactory.getStore().getVersion();
+      byte[] body = cache.get(path + params, version,
+          () -> query(path, params).toJson().getBytes(StandardCharsets.UTF_8));
+      send(exchange, 200, body, version);
+    } catch (NoSuchElementException e) {
+      send(exchange, 404, error(e.getMessage()), -1);
+    } catch (IllegalArgumentException e) {
+      send(exchange, 400, error(e.getMessage()), -1);
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      send(exchange, 500, error("Internal error"), -1);
+    } finally {
+      exchange.close();
+      REQUEST_LATENCY.recordSince(started);
+    }
+  }
+
+  /**
+   * run the report of the path
+   *
+   * @throws NoSuchElementException for an unknown path
+   * @throws IllegalArgumentException for a missing or illegal parameter
+   */
+  private ReportTable query(String path, Map<String, String> params) {
+    switch (path) {
+      case "/farm":
+        return ReportTable.ofFarmReports(dataManager.getFarmReport(
+            required(params, "id"),
+            Util.parseAsInt(required(params, "year"))));
+      case "/annual":
+        return ReportTable.ofRangeReports(dataManager.getAnnualReport(
+            Util.parseAsInt(required(params, "year")), sortField(params, false),
+            ascending(params)));
+      case "/monthly":
+        return ReportTable.ofRangeReports(dataManager.getMonthlyReport(
+            Util.parseAsInt(required(params, "year")),
+            Util.parseAsInt(required(params, "month")),
+            sortField(params, false), ascending(params)));
+      case "/range":
+        return ReportTable.ofRangeReports(dataManager.getDateRangeReports(
+            Util.parseAsDate(required(params, "start")),
+            Util.parseAsDate(required(params, "end")),
+            sortField(params, false), ascending(params)));
+      case "/farms":
+        int offset = Util.parseAsInt(params.getOrDefault("offset", "0"));
+        int limit = Util.parseAsInt(
+            params.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT)));
+        return ReportTable.ofFarms(dataManager.getDataSortedByField(
+            sortField(params, true), ascending(params), offset, limit));
+      case "/top-farms":
+        return ReportTable.ofRangeReports(dataManager.getTopFarms(
+            Util.parseAsDate(required(params, "start")),
+            Util.parseAsDate(required(params, "end")),
+            Util.parseAsInt(params.getOrDefault("k", "10"))));
+      case "/top-days":
+        return ReportTable.ofFarms(dataManager.getTopDays(
+            Util.parseAsDate(required(params, "start")),
+            Util.parseAsDate(required(params, "end")),
+            Util.parseAsInt(params.getOrDefault("k", "10"))));
+      case "/percentiles":
+        return ReportTable.ofPercentileReports(
+            dataManager.getPercentileReports(
+                Util.parseAsDate(required(params, "start")),
+                Util.parseAsDate(required(params, "end")),
+                DataManager.DEFAULT_QUANTILES),
+            DataManager.DEFAULT_QUANTILES);
+      default:
+        throw new NoSuchElementException("No such report:" + path);
+    }
+  }
+
+  private static String required(Map<String, String> params, String name) {
+    String value = params.get(name);
+    if (null == value) {
+      throw new IllegalArgumentException("Missing parameter:" + name);
+    }
+    return value;
+  }
+
+  /**
+   * @param allowDate true if the records can be sorted by date, reports only sort by id or weight
+   */
+  private static FiledType sortField(Map<String, String> params,
+      boolean allowDate) {
+    String field = params.getOrDefault("sort", "id").toUpperCase();
+    if (!"ID".equals(field) && !"WEIGHT".equals(field)
+        && !(allowDate && "DATE".equals(field))) {
+      throw new IllegalArgumentException("Illegal sort field:" + field);
+    }
+    return FiledType.valueOf(field);
+  }
+
+  private static boolean ascending(Map<String, String> params) {
+    String order = params.getOrDefault("order", "asc");
+    if (!"asc".equals(order) && !"desc".equals(order)) {
+      throw new IllegalArgumentException("Illegal order:" + order);
+    }
+    return "asc".equals(order);
+  }
+
+  /**
+   * @return the decoded parameters sorted by name, so equal queries make equal cache keys
+   */
+  private static Map<String, String> parseQuery(String rawQuery) {
+    Map<String, String> params = new TreeMap<>();
+    if (null == rawQuery || rawQuery.isEmpty()) {
+      return params;
+    }
+    for (String pair : rawQuery.split("&")) {
+      int eq = pair.indexOf('=');
+      String name = eq < 0 ? pair : pair.substring(0, eq);
+      String value = eq < 0 ? "" : pair.substring(eq + 1);
+      params.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+          URLDecoder.decode(value, StandardCharsets.UTF_8));
+    }
+    return params;
+  }
+
+  private static byte[] error(String message) {
+    StringBuilder sb = new StringBuilder("{\"error\": ");
+    ReportTable.jsonString(sb, null == message ? "" : message);
+    return sb.append("}\n").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param version store version of the response, -1 for errors
+   */
+  private static void send(HttpExchange exchange, int status, byte[] body,
+      long version) throws IOException {
+    send(exchange, status, "application/json; charset=utf-8", body, version);
+  }
+
+  /**
+   * @param version store version of the response, -1 for none
+   */
+  private static void send(HttpExchange exchange, int status,
+      String contentType, byte[] body, long version) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    if (version >= 0) {
+      exchange.getResponseHeaders().set("X-Data-Version",
+          String.valueOf(version));
+    }
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
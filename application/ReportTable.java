@@ -0,0 +1,173 @@
+package application;
+
+/**
+ * Report rows with named columns that can be printed as csv or json, shared by the batch mode and
+ * the HTTP query service
+ */
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class ReportTable {
+
+  // columns printed as json strings, all others are numbers
+  private static final List<String> TEXT_COLUMNS =
+      Arrays.asList("farm_id", "date");
+
+  private String[] columns;
+  private List<String[]> rows = new ArrayList<>();
+
+  public ReportTable(String... columns) {
+    this.columns = columns;
+  }
+
+  /**
+   * @param reports farm report of one farm
+   * @return a table with one row per month
+   */
+  public static ReportTable ofFarmReports(
+      List<DataManager.FarmReport> reports) {
+    ReportTable table = new ReportTable("month", "total_weight", "percent",
+        "min", "max", "avg");
+    for (DataManager.FarmReport report : reports) {
+      table.add(String.valueOf(report.getMonth()),
+          String.valueOf(report.getTotalWeight()),
+          formatDouble(report.getPercent()), String.valueOf(report.getMin()),
+          String.valueOf(report.getMax()), formatDouble(report.getAvg()));
+    }
+    return table;
+  }
+
+  /**
+   * @param reports annual, monthly or date range report
+   * @return a table with one row per farm
+   */
+  public static ReportTable ofRangeReports(
+      List<DataManager.DateRangeReport> reports) {
+    ReportTable table = new ReportTable("farm_id", "total_weight", "percent",
+        "min", "max", "avg");
+    for (DataManager.DateRangeReport report : reports) {
+      table.add(report.getFarmId(), String.valueOf(report.getTotalWeight()),
+          formatDouble(report.getPercent()), String.valueOf(report.getMin()),
+          String.valueOf(report.getMax()), formatDouble(report.getAvg()));
+    }
+    return table;
+  }
+
+  /**
+   * @param reports percentile reports with the same quantiles
+   * @return a table with one row per farm and one column per quantile, such as p50 and p99
+   */
+  public static ReportTable ofPercentileReports(
+      List<DataManager.PercentileReport> reports, double... quantiles) {
+    String[] columns = new String[2 + quantiles.length];
+    columns[0] = "farm_id";
+    columns[1] = "count";
+    for (int i = 0; i < quantiles.length; i++) {
+      columns[2 + i] = "p" + BigDecimal.valueOf(quantiles[i] * 100)
+          .stripTrailingZeros().toPlainString();
+    }
+    ReportTable table = new ReportTable(columns);
+    for (DataManager.PercentileReport report : reports) {
+      String[] row = new String[columns.length];
+      row[0] = report.getFarmId();
+      row[1] = String.valueOf(report.getCount());
+      for (int i = 0; i < quantiles.length; i++) {
+        row[2 + i] = formatDouble(report.getValues()[i]);
+      }
+      table.add(row);
+    }
+    return table;
+  }
+
+  /**
+   * @param farms given farms
+   * @return a table with one row per farm record
+   */
+  public static ReportTable ofFarms(List<Farm> farms) {
+    ReportTable table = new ReportTable("date", "farm_id", "weight");
+    for (Farm farm : farms) {
+      table.add(farm.getDate().toString(), farm.getId(),
+          String.valueOf(farm.getWeight()));
+    }
+    return table;
+  }
+
+  public void add(String... row) {
+    rows.add(row);
+  }
+
+  public int size() {
+    return rows.size();
+  }
+
+  public String toCsv() {
+    StringBuilder sb =
+        new StringBuilder(String.join(",", columns)).append('\n');
+    for (String[] row : rows) {
+      for (int i = 0; i < row.length; i++) {
+        sb.append(0 == i ? "" : ",").append(csvField(row[i]));
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  public String toJson() {
+    StringBuilder sb = new StringBuilder("[");
+    for (int r = 0; r < rows.size(); r++) {
+      sb.append(0 == r ? "\n  {" : ",\n  {");
+      String[] row = rows.get(r);
+      for (int i = 0; i < row.length; i++) {
+        sb.append(0 == i ? "" : ", ").append('"').append(columns[i])
+            .append("\": ");
+        if (TEXT_COLUMNS.contains(columns[i])) {
+          jsonString(sb, row[i]);
+        } else if (row[i].endsWith("NaN") || row[i].endsWith("Infinity")) {
+          // json has no literal for non finite numbers
+          sb.append("null");
+        } else {
+          sb.append(row[i]);
+        }
+      }
+      sb.append('}');
+    }
+    return sb.append(rows.isEmpty() ? "]\n" : "\n]\n").toString();
+  }
+
+  private static String formatDouble(double value) {
+    return String.format(Locale.ROOT, "%.3f", value);
+  }
+
+  private static String csvField(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+        && value.indexOf('\n') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+  /**
+   * append the value as a quoted and escaped json string
+   */
+  static void jsonString(StringBuilder sb, String value) {
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if ('"' == c || '\\' == c) {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    sb.append('"');
+  }
+}
@@ -0,0 +1,404 @@
+package application;
+
+/**
+ * Sorted secondary index over all records, kept in chunks of at most 1024 entries so an insert or
+ * remove only shifts one chunk. An entry is a (long major, int minor) pair ordered by major then
+ * minor: the date index stores (day, farm code) and the weight, the weight index stores
+ * (weight, farm code) and the day. Every entry holds a whole record, so a page is read without
+ * looking at the columns.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class SortedIndex {
+
+  private static final int CHUNK_SIZE = 1024;
+
+  private FiledType field;
+  private List<Chunk> chunks = new ArrayList<>();
+  private int size;
+
+  /**
+   * Receives the records of a page in order
+   */
+  public interface EntryVisitor {
+    void visit(int code, int day, int weight);
+  }
+
+  private SortedIndex(FiledType field) {
+    this.field = field;
+  }
+
+  /**
+   * build the index over all records of the snapshot
+   *
+   * @param snapshot given snapshot
+   * @param field DATE or WEIGHT
+   * @return a new index
+   */
+  public static SortedIndex build(MilkSnapshot snapshot, FiledType field) {
+    SortedIndex index = new SortedIndex(field);
+    int size = snapshot.size();
+    int[] codes = new int[size];
+    int[] days = new int[size];
+    int[] weights = new int[size];
+    // rows in (code, day) order, a key holds the sorted value and the row so ties keep that order
+    long[] keys = new long[size];
+    for (int code = 0, row = 0; code < snapshot.getFarmCount(); code++) {
+      for (int pos = 0; pos < snapshot.size(code); pos++, row++) {
+        codes[row] = code;
+        days[row] = snapshot.dayAt(code, pos);
+        weights[row] = snapshot.weightAt(code, pos);
+        int value = FiledType.DATE == field ? days[row] : weights[row];
+        keys[row] = ((long) value - Integer.MIN_VALUE) << 31 | row;
+      }
+    }
+    Arrays.sort(keys);
+    Chunk chunk = null;
+    for (long key : keys) {
+      int row = (int) (key & Integer.MAX_VALUE);
+      if (null == chunk || chunk.size == CHUNK_SIZE) {
+        chunk = new Chunk();
+        index.chunks.add(chunk);
+      }
+      chunk.majors[chunk.size] = index.majorOf(codes[row], days[row],
+          weights[row]);
+      chunk.minors[chunk.size++] = index.minorOf(days[row], weights[row]);
+    }
+    index.size = size;
+    return index;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * account a new record
+   */
+  public void insert(int code, int day, int weight) {
+    long major = majorOf(code, day, weight);
+    int minor = minorOf(day, weight);
+    if (chunks.isEmpty()) {
+      chunks.add(new Chunk());
+    }
+    int c = chunkFor(major, minor);
+    Chunk chunk = chunks.get(c);
+    if (chunk.size == CHUNK_SIZE) {
+      // split the full chunk in halves and insert into the matching half
+      Chunk upper = new Chunk();
+      int half = CHUNK_SIZE / 2;
+      System.arraycopy(chunk.majors, half, upper.majors, 0, half);
+      System.arraycopy(chunk.minors, half, upper.minors, 0, half);
+      upper.size = half;
+      chunk.size = half;
+      chunks.add(c + 1, upper);
+      if (compare(major, minor, upper.majors[0], upper.minors[0]) >= 0) {
+        chunk = upper;
+      }
+    }
+    int pos = -chunk.search(major, minor) - 1;
+    System.arraycopy(chunk.majors, pos, chunk.majors, pos + 1,
+        chunk.size - pos);
+    System.arraycopy(chunk.minors, pos, chunk.minors, pos + 1,
+        chunk.size - pos);
+    chunk.majors[pos] = major;
+    chunk.minors[pos] = minor;
+    chunk.size++;
+    size++;
+  }
+
+  /**
+   * account a removed record
+   */
+  public void remove(int code, int day, int weight) {
+    long major = majorOf(code, day, weight);
+    int minor = minorOf(day, weight);
+    if (chunks.isEmpty()) {
+      return;
+    }
+    int c = chunkFor(major, minor);
+    Chunk chunk = chunks.get(c);
+    int pos = chunk.search(major, minor);
+    if (pos < 0) {
+      return;
+    }
+    System.arraycopy(chunk.majors, pos + 1, chunk.majors, pos,
+        chunk.size - pos - 1);
+    System.arraycopy(chunk.minors, pos + 1, chunk.minors, pos,
+        chunk.size - pos - 1);
+    chunk.size--;
+    size--;
+    if (0 == chunk.size && chunks.size() > 1) {
+      chunks.remove(c);
+    }
+  }
+
+  /**
+   * account a record whose weight changed
+   */
+  public void replace(int code, int day, int oldWeight, int newWeight) {
+    if (FiledType.DATE == field) {
+      // the weight is the minor of a unique major, the order does not change
+      long major = majorOf(code, day, oldWeight);
+      Chunk chunk = chunks.get(chunkFor(major, oldWeight));
+      int pos = chunk.search(major, oldWeight);
+      if (pos >= 0) {
+        chunk.minors[pos] = newWeight;
+      }
+    } else {
+      remove(code, day, oldWeight);
+      insert(code, day, newWeight);
+    }
+  }
+
+  /**
+   * visit one page of the records in index order. In descending order, records with the same date
+   * or weight keep their ascending (farm code, day) order, as a stable sort with a reversed
+   * comparator would leave them.
+   *
+   * @param asc true for ascending
+   * @param offset the number of records skipped
+   * @param limit the max number of records visited
+   * @param visitor receiver of the records
+   */
+  public void page(boolean asc, int offset, int limit, EntryVisitor visitor) {
+    int end = (int) Math.min((long) offset + limit, size);
+    if (asc) {
+      Cursor cursor = new Cursor(offset);
+      for (int rank = offset; rank < end; rank++) {
+        emit(cursor.chunk, cursor.pos, visitor);
+        cursor.next();
+      }
+      return;
+    }
+    // walk the groups of equal values from the last one, each group is visited in ascending order
+    int rank = offset;
+    Cursor cursor = new Cursor(size - 1 - offset);
+    int groupEnd = size - 1 - offset;
+    if (rank < end) {
+      int value = cursor.value();
+      Cursor ahead = cursor.copy();
+      while (groupEnd < size - 1 && ahead.next() && ahead.value() == value) {
+        groupEnd++;
+      }
+    }
+    while (rank < end) {
+      int position = size - 1 - rank;
+      int value = cursor.value();
+      int groupStart = position;
+      // move the cursor back to the first entry of the group
+      while (cursor.prev()) {
+        if (cursor.value() != value) {
+          cursor.next();
+          break;
+        }
+        groupStart--;
+      }
+      // the entry of this rank is mirrored inside its group
+      Cursor out = cursor.copy();
+      out.skip(groupEnd - position);
+      for (int k = groupStart; k <= position && rank < end; k++, rank++) {
+        emit(out.chunk, out.pos, visitor);
+        out.next();
+      }
+      cursor.prev();
+      groupEnd = groupStart - 1;
+    }
+  }
+
+  /**
+   * binary search the position of a record in the page order, the record does not need to be in
+   * the index: a missing record gets the position it would be inserted at
+   *
+   * @param asc true for ascending
+   * @param code farm code
+   * @param day epoch day
+   * @param weight milk weight
+   * @return the number of records before the given one
+   */
+  public int rank(boolean asc, int code, int day, int weight) {
+    long major = majorOf(code, day, weight);
+    // a (day, farm code) major is unique, so the weight of a date entry does not move it
+    int minor = FiledType.DATE == field ? Integer.MIN_VALUE : day;
+    int before = countBefore(major, minor);
+    if (asc) {
+      return before;
+    }
+    // larger values come first, records with the same value keep their ascending order
+    int value = FiledType.DATE == field ? day : weight;
+    int lower = countBefore((long) value << 32, Integer.MIN_VALUE);
+    int upper = Integer.MAX_VALUE == value ? size
+        : countBefore((long) (value + 1) << 32, Integer.MIN_VALUE);
+    return size - upper + before - lower;
+  }
+
+  /**
+   * @return the number of entries less than the key
+   */
+  private int countBefore(long major, int minor) {
+    if (chunks.isEmpty()) {
+      return 0;
+    }
+    int c = chunkFor(major, minor);
+    int count = 0;
+    for (int i = 0; i < c; i++) {
+      count += chunks.get(i).size;
+    }
+    int pos = chunks.get(c).search(major, minor);
+    return count + (pos < 0 ? -pos - 1 : pos);
+  }
+
+  private void emit(Chunk chunk, int pos, EntryVisitor visitor) {
+    long major = chunk.majors[pos];
+    int minor = chunk.minors[pos];
+    int code = (int) major;
+    int value = (int) (major >> 32);
+    if (FiledType.DATE == field) {
+      visitor.visit(code, value, minor);
+    } else {
+      visitor.visit(code, minor, value);
+    }
+  }
+
+  private long majorOf(int code, int day, int weight) {
+    int value = FiledType.DATE == field ? day : weight;
+    return (long) value << 32 | code;
+  }
+
+  private int minorOf(int day, int weight) {
+    return FiledType.DATE == field ? weight : day;
+  }
+
+  /**
+   * @return the index of the last chunk whose first entry is not greater than the key, or 0
+   */
+  private int chunkFor(long major, int minor) {
+    int lo = 0;
+    int hi = chunks.size() - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      Chunk chunk = chunks.get(mid);
+      if (compare(chunk.majors[0], chunk.minors[0], major, minor) <= 0) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  private static int compare(long major1, int minor1, long major2,
+      int minor2) {
+    int result = Long.compare(major1, major2);
+    return 0 != result ? result : Integer.compare(minor1, minor2);
+  }
+
+  /**
+   * Sorted entries of one chunk
+   */
+  private static class Chunk {
+    private long[] majors = new long[CHUNK_SIZE];
+    private int[] minors = new int[CHUNK_SIZE];
+    private int size;
+
+    /**
+     * @return the position of the entry if exists, otherwise (-(insertion point) - 1)
+     */
+    int search(long major, int minor) {
+      int lo = 0;
+      int hi = size - 1;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        int result = compare(majors[mid], minors[mid], major, minor);
+        if (result < 0) {
+          lo = mid + 1;
+        } else if (result > 0) {
+          hi = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -lo - 1;
+    }
+  }
+
+  /**
+   * Position of an entry as a chunk and a position inside it
+   */
+  private class Cursor {
+    private int chunkIndex;
+    private Chunk chunk;
+    private int pos;
+
+    Cursor(int position) {
+      pos = position;
+      chunk = chunks.isEmpty() ? null : chunks.get(0);
+      while (null != chunk && pos >= chunk.size
+          && chunkIndex + 1 < chunks.size()) {
+        pos -= chunk.size;
+        chunk = chunks.get(++chunkIndex);
+      }
+    }
+
+    private Cursor() {}
+
+    Cursor copy() {
+      Cursor copy = new Cursor();
+      copy.chunkIndex = chunkIndex;
+      copy.chunk = chunk;
+      copy.pos = pos;
+      return copy;
+    }
+
+    /**
+     * @return the sorted value, date or weight, at the cursor
+     */
+    int value() {
+      return (int) (chunk.majors[pos] >> 32);
+    }
+
+    /**
+     * @return false if the cursor was at the last entry and did not move
+     */
+    boolean next() {
+      if (pos + 1 < chunk.size) {
+        pos++;
+        return true;
+      }
+      if (chunkIndex + 1 < chunks.size()) {
+        chunk = chunks.get(++chunkIndex);
+        pos = 0;
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * @return false if the cursor was at the first entry and did not move
+     */
+    boolean prev() {
+      if (pos > 0) {
+        pos--;
+        return true;
+      }
+      if (chunkIndex > 0) {
+        chunk = chunks.get(--chunkIndex);
+        pos = chunk.size - 1;
+        return true;
+      }
+      return false;
+    }
+
+    void skip(int count) {
+      for (int i = 0; i < count; i++) {
+        next();
+      }
+    }
+  }
+}
@@ -7,6 +7,16 @@ import java.time.LocalDate;
  */
 public class Util {
 
+  // the years a data file can hold, an unsigned year of at most 4 digits
+  public static final int MIN_YEAR = 0;
+  public static final int MAX_YEAR = 9999;
+
+  private static final long DAYS_0000_TO_1970 = 719528L;
+  private static final long DAYS_PER_CYCLE = 146097L;
+  // the first and last epoch day a record can have
+  private static final int FIRST_DAY = toEpochDay(MIN_YEAR, 1, 1);
+  private static final int LAST_DAY = toEpochDay(MAX_YEAR, 12, 31);
+
   /**
    * parse the date string in "yyyy-MM-dd" format
    *
@@ -64,6 +74,117 @@ public class Util {
     }
   }
 
+  /**
+   * @param year given year
+   * @return true if the year is a leap year in the ISO calendar
+   */
+  public static boolean isLeapYear(int year) {
+    return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+  }
+
+  /**
+   * @param year given year
+   * @param month given month, from 1 to 12
+   * @return the number of days of the month
+   */
+  public static int lengthOfMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        return isLeapYear(year) ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * @return true if the year, month and day form a valid date
+   */
+  public static boolean isValidDate(int year, int month, int day) {
+    return month >= 1 && month <= 12 && day >= 1
+        && day <= lengthOfMonth(year, month);
+  }
+
+  /**
+   * convert a valid date to its epoch day without creating a LocalDate, the same value as
+   * LocalDate.of(year, month, day).toEpochDay(). The year should be from MIN_YEAR to MAX_YEAR.
+   *
+   * @return the number of days since 1970-01-01
+   */
+  public static int toEpochDay(int year, int month, int day) {
+    long y = year;
+    long total = 365 * y;
+    if (y >= 0) {
+      total += (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400;
+    } else {
+      total -= y / -4 - y / -100 + y / -400;
+    }
+    total += (367 * month - 362) / 12;
+    total += day - 1;
+    if (month > 2) {
+      total -= isLeapYear(year) ? 1 : 2;
+    }
+    return (int) (total - DAYS_0000_TO_1970);
+  }
+
+  /**
+   * @param date given date
+   * @return the epoch day of the date as it is stored
+   * @throws IllegalArgumentException if the year of the date is not from MIN_YEAR to MAX_YEAR
+   */
+  public static int epochDayOf(LocalDate date) {
+    if (date.getYear() < MIN_YEAR || date.getYear() > MAX_YEAR) {
+      throw new IllegalArgumentException("Illegal date value:" + date);
+    }
+    return (int) date.toEpochDay();
+  }
+
+  /**
+   * clamp a bound of a date range to the days a record can have, so any date selects the same
+   * records and the epoch day never overflows an int
+   *
+   * @param date given date
+   * @return the epoch day of the date, at least the first day of MIN_YEAR and at most the last day
+   *         of MAX_YEAR
+   */
+  public static int clampedEpochDayOf(LocalDate date) {
+    return (int) Math.max(FIRST_DAY, Math.min(LAST_DAY, date.toEpochDay()));
+  }
+
+  /**
+   * find the month of the given epoch day without creating a LocalDate
+   *
+   * @param epochDay the number of days since 1970-01-01
+   * @return year * 12 + month - 1, where month is from 1 to 12
+   */
+  public static int monthIndexOf(int epochDay) {
+    // days since 0000-03-01, so the leap day is the last day of a year
+    long zero = epochDay + DAYS_0000_TO_1970 - 60;
+    long era = Math.floorDiv(zero, DAYS_PER_CYCLE);
+    long dayOfEra = zero - era * DAYS_PER_CYCLE;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+        - dayOfEra / 146096) / 365;
+    long dayOfYear =
+        dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long marchMonth = (5 * dayOfYear + 2) / 153;
+    long year = yearOfEra + era * 400 + (marchMonth >= 10 ? 1 : 0);
+    long month = marchMonth < 10 ? marchMonth + 3 : marchMonth - 9;
+    return (int) (year * 12 + month - 1);
+  }
+
+  /**
+   * @param monthIndex year * 12 + month - 1
+   * @return the epoch day of the first day of the month
+   */
+  public static int monthStartOf(int monthIndex) {
+    return toEpochDay(Math.floorDiv(monthIndex, 12),
+        Math.floorMod(monthIndex, 12) + 1, 1);
+  }
+
   /**
    * format the double number into str with given decimal
    *
@@ -0,0 +1,42 @@
+package application;
+
+/**
+ * Fused sum, min and max kernel over a contiguous slice of a weight column. A column is sorted by
+ * day, so a date range predicate is two binary searches and the kernel never tests a day. The loop
+ * keeps its accumulators in locals and has no bound other than the slice, so the JIT unrolls it
+ * and turns min and max into branch free instructions; accounting each weight into the stats
+ * instead re-checks the day and stores four fields per record.
+ */
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class WeightKernels {
+
+  private WeightKernels() {}
+
+  /**
+   * account the weights at positions from (inclusive) to to (exclusive) into the stats in one pass
+   *
+   * @param weights given weight column
+   * @param from the first position
+   * @param to the position after the last one
+   * @param stats receiver of the aggregates
+   */
+  public static void aggregate(int[] weights, int from, int to,
+      RangeStats stats) {
+    if (from >= to) {
+      return;
+    }
+    long sum = 0;
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    for (int i = from; i < to; i++) {
+      int weight = weights[i];
+      sum += weight;
+      min = Math.min(min, weight);
+      max = Math.max(max, weight);
+    }
+    stats.add(sum, to - from, min, max);
+  }
+}
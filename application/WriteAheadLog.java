@@ -0,0 +1,636 @@
+package application;
+
+/**
+ * Append-only log of the changes of a store, so added, edited and removed farms survive a crash
+ * without saving the whole data set. Each change is appended to the current segment wal-N.log as a
+ * small checksummed record; a flusher thread writes and forces everything appended so far in one go,
+ * so concurrent writers share one fsync (group commit). When a segment grows beyond the compaction
+ * size the store is written into snapshot-N.mwb at the exact cut where segment N starts, and the
+ * older snapshots and segments are deleted.
+ *
+ * On open the newest snapshot is loaded and the segments from its cut on are replayed in order. Only
+ * the newest segment can be torn by a crash, a segment is forced before the next one starts, so a
+ * torn or corrupt tail of the newest segment is truncated away. A corrupt record in an older segment
+ * fails the open, replaying the later segments without it would build a store that never existed.
+ * An open log holds an exclusive lock on wal.lock in its directory, so a second instance can not
+ * truncate its segment or race its compaction.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class WriteAheadLog implements MilkStore.MutationListener {
+
+  // a segment larger than this is compacted into a snapshot
+  public static final long DEFAULT_COMPACT_BYTES = 32L << 20;
+
+  private static final byte[] MAGIC = {'M', 'W', 'L'};
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_SIZE = MAGIC.length + 1;
+  private static final String LOCK_FILE = "wal.lock";
+  // the lock files held by this process, guarded by itself. Closing any channel of a lock file
+  // releases the lock of the whole process, so a held one must not be opened again.
+  private static final Set<String> LOCKED = new HashSet<>();
+  private static final Pattern SEGMENT = Pattern.compile("wal-(\\d+)\\.log");
+  private static final Pattern SNAPSHOT =
+      Pattern.compile("snapshot-(\\d+)\\" + MilkBinaryFormat.EXTENSION);
+
+  // record types, a farm is defined in a segment before its code is first used there
+  private static final byte DEFINE = 0;
+  private static final byte INSERT = 1;
+  private static final byte UPDATE = 2;
+  private static final byte REMOVE = 3;
+  private static final byte CLEAR = 4;
+
+  private File directory;
+  // held from open to close, closing the channel releases the lock
+  private FileChannel lockChannel;
+  private String lockPath;
+  private MilkStore store;
+  private long compactBytes;
+  private Thread flusher;
+  private final Object compactLock = new Object();
+
+  // guarded by this
+  private FileChannel channel;
+  private long segment;
+  private long segmentBytes;
+  private BitSet defined = new BitSet();
+  private Buffer pending = new Buffer();
+  private Buffer spare = new Buffer();
+  private long appendedSeq;
+  private long durableSeq;
+  private boolean flushing;
+  private boolean compacting;
+  private boolean closed;
+  private IOException failure;
+
+  private WriteAheadLog(File directory, MilkStore store, long compactBytes) {
+    this.directory = directory;
+    this.store = store;
+    this.compactBytes = compactBytes;
+  }
+
+  /**
+   * open the log with the default compaction size
+   *
+   * @see #open(File, MilkStore, long)
+   */
+  public static WriteAheadLog open(File directory, MilkStore store)
+      throws IOException {
+    return open(directory, store, DEFAULT_COMPACT_BYTES);
+  }
+
+  /**
+   * load the newest snapshot and replay the log of the directory into the store, then log every
+   * later change of the store
+   *
+   * @param directory log directory, created when missing
+   * @param store given empty store
+   * @param compactBytes segment size that triggers a compaction
+   * @return the open log
+   * @throws IOException if the directory can not be read or written, another log has it open or a
+   *         segment before the newest one is corrupt, the store is left empty then
+   */
+  public static WriteAheadLog open(File directory, MilkStore store,
+      long compactBytes) throws IOException {
+    Files.createDirectories(directory.toPath());
+    File lockFile = new File(directory, LOCK_FILE);
+    String lockPath = lockFile.getCanonicalPath();
+    String inUse = "The log in " + directory
+        + " is used by another instance, close it first";
+    synchronized (LOCKED) {
+      if (!LOCKED.add(lockPath)) {
+        throw new IOException(inUse);
+      }
+    }
+    FileChannel lockChannel = null;
+    try {
+      lockChannel = FileChannel.open(lockFile.toPath(),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      if (null == lockChannel.tryLock()) {
+        throw new IOException(inUse);
+      }
+      WriteAheadLog log =
+          recover(directory, store, compactBytes, lockChannel);
+      log.lockPath = lockPath;
+      return log;
+    } catch (IOException | RuntimeException e) {
+      if (null != lockChannel) {
+        lockChannel.close();
+      }
+      synchronized (LOCKED) {
+        LOCKED.remove(lockPath);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * load the snapshot and replay the segments of the locked directory, then start logging
+   */
+  private static WriteAheadLog recover(File directory, MilkStore store,
+      long compactBytes, FileChannel lockChannel) throws IOException {
+    long snapshotCut = -1;
+    List<Long> segments = new ArrayList<>();
+    for (File file : listFiles(directory)) {
+      Matcher snapshot = SNAPSHOT.matcher(file.getName());
+      Matcher segment = SEGMENT.matcher(file.getName());
+      if (snapshot.matches()) {
+        snapshotCut = Math.max(snapshotCut, Long.parseLong(snapshot.group(1)));
+      } else if (segment.matches()) {
+        segments.add(Long.parseLong(segment.group(1)));
+      } else if (file.getName().endsWith(".tmp")) {
+        // an unfinished compaction
+        Files.delete(file.toPath());
+      }
+    }
+    segments.sort(null);
+
+    long next = Math.max(0, snapshotCut);
+    long replayed = 0;
+    try {
+      if (snapshotCut >= 0) {
+        store.insertBatch(
+            MilkBinaryFormat.read(snapshotFile(directory, snapshotCut)));
+      }
+      for (int i = 0; i < segments.size(); i++) {
+        long segment = segments.get(i);
+        // the segments before the cut are in the snapshot already
+        if (segment >= snapshotCut) {
+          replayed += replay(segmentFile(directory, segment), store,
+              i == segments.size() - 1);
+          next = Math.max(next, segment + 1);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      store.clear();
+      throw e;
+    }
+
+    WriteAheadLog log = new WriteAheadLog(directory, store, compactBytes);
+    log.lockChannel = lockChannel;
+    log.startSegment(next);
+    store.setMutationListener(log);
+    log.flusher = new Thread(log::flushLoop, "milkweight-wal");
+    log.flusher.setDaemon(true);
+    log.flusher.start();
+    if (replayed > compactBytes) {
+      log.compact();
+    }
+    return log;
+  }
+
+  @Override
+  public synchronized void inserted(int code, int day, int weight) {
+    append(INSERT, code, day, weight);
+  }
+
+  @Override
+  public synchronized void updated(int code, int day, int weight) {
+    append(UPDATE, code, day, weight);
+  }
+
+  @Override
+  public synchronized void removed(int code, int day) {
+    append(REMOVE, code, day, 0);
+  }
+
+  @Override
+  public synchronized void cleared() {
+    if (null != failure) {
+      return;
+    }
+    // the dictionary starts over, so the codes must be defined again
+    defined.clear();
+    int start = pending.begin(CLEAR);
+    pending.end(start);
+    appended();
+  }
+
+  /**
+   * wait until every change appended so far is on disk
+   *
+   * @throws IOException if the log can not be written
+   */
+  public synchronized void sync() throws IOException {
+    long target = appendedSeq;
+    try {
+      while (durableSeq < target && null == failure) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while syncing the log");
+    }
+    if (null != failure) {
+      throw new IOException("The log can not be written", failure);
+    }
+  }
+
+  /**
+   * write the store into a snapshot and delete the log before it
+   *
+   * @throws IOException if the snapshot can not be written
+   */
+  public void compact() throws IOException {
+    synchronized (compactLock) {
+      long[] cut = new long[1];
+      IOException[] rotateFailure = new IOException[1];
+      // the new segment starts exactly at the cut of the snapshot
+      MilkSnapshot snapshot = store.snapshot(() -> {
+        try {
+          cut[0] = rotate();
+        } catch (IOException e) {
+          rotateFailure[0] = e;
+        }
+      });
+      if (null != rotateFailure[0]) {
+        throw rotateFailure[0];
+      }
+      File target = snapshotFile(directory, cut[0]);
+      File temp = new File(directory, target.getName() + ".tmp");
+      MilkBinaryFormat.write(snapshot, temp);
+      try (FileChannel file =
+          FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+        file.force(true);
+      }
+      Files.move(temp.toPath(), target.toPath(),
+          StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      for (File file : listFiles(directory)) {
+        Matcher snapshotName = SNAPSHOT.matcher(file.getName());
+        Matcher segmentName = SEGMENT.matcher(file.getName());
+        if (snapshotName.matches()
+            && Long.parseLong(snapshotName.group(1)) < cut[0]
+            || segmentName.matches()
+                && Long.parseLong(segmentName.group(1)) < cut[0]) {
+          Files.delete(file.toPath());
+        }
+      }
+    }
+  }
+
+  /**
+   * stop logging, write the changes appended so far, close the segment and release the directory
+   *
+   * @throws IOException if the log can not be written
+   */
+  public void close() throws IOException {
+    store.setMutationListener(null);
+    synchronized (compactLock) {
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        notifyAll();
+      }
+      try {
+        flusher.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while closing the log");
+      }
+      synchronized (this) {
+        try {
+          channel.close();
+        } finally {
+          lockChannel.close();
+          synchronized (LOCKED) {
+            LOCKED.remove(lockPath);
+          }
+        }
+        if (null != failure) {
+          throw new IOException("The log can not be written", failure);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of the segment changes are appended to
+   */
+  public synchronized long getSegment() {
+    return segment;
+  }
+
+  private void append(byte type, int code, int day, int weight) {
+    // after a failure nothing reaches the disk anymore, sync reports it
+    if (null != failure) {
+      return;
+    }
+    if (!defined.get(code)) {
+      defined.set(code);
+      byte[] name =
+          store.getDictionary().nameOf(code).getBytes(StandardCharsets.UTF_8);
+      int start = pending.begin(DEFINE);
+      pending.putInt(code);
+      pending.putInt(name.length);
+      pending.put(name);
+      pending.end(start);
+    }
+    int start = pending.begin(type);
+    pending.putInt(code);
+    pending.putInt(day);
+    if (REMOVE != type) {
+      pending.putInt(weight);
+    }
+    pending.end(start);
+    appended();
+  }
+
+  private void appended() {
+    appendedSeq++;
+    if (!flushing) {
+      notifyAll();
+    }
+  }
+
+  private void flushLoop() {
+    while (true) {
+      Buffer batch;
+      FileChannel target;
+      long seq;
+      synchronized (this) {
+        try {
+          while (!closed && (0 == pending.size || null != failure)) {
+            wait();
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (0 == pending.size || null != failure) {
+          return;
+        }
+        batch = pending;
+        pending = spare;
+        spare = batch;
+        target = channel;
+        seq = appendedSeq;
+        flushing = true;
+      }
+      IOException error = null;
+      try {
+        batch.writeTo(target);
+        target.force(false);
+      } catch (IOException e) {
+        error = e;
+      }
+      boolean compact;
+      synchronized (this) {
+        segmentBytes += batch.size;
+        batch.clear();
+        flushing = false;
+        if (null == error) {
+          durableSeq = seq;
+        } else {
+          failure = error;
+        }
+        compact = null == error && !closed && !compacting
+            && segmentBytes > compactBytes;
+        compacting |= compact;
+        notifyAll();
+      }
+      if (compact) {
+        Thread compactor = new Thread(this::compactInBackground,
+            "milkweight-wal-compaction");
+        compactor.setDaemon(true);
+        compactor.start();
+      }
+    }
+  }
+
+  private void compactInBackground() {
+    try {
+      compact();
+    } catch (IOException e) {
+      // the log stays valid without the snapshot, retry when the segment grows again
+      System.err.println("Compacting the log failed: " + e.getMessage());
+    } finally {
+      synchronized (this) {
+        compacting = false;
+      }
+    }
+  }
+
+  /**
+   * finish the current segment and continue in the next one, called while no store writer runs
+   *
+   * @return the number of the new segment
+   */
+  private synchronized long rotate() throws IOException {
+    try {
+      while (flushing) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while rotating the log");
+    }
+    if (null != failure) {
+      throw new IOException("The log can not be written", failure);
+    }
+    pending.writeTo(channel);
+    channel.force(false);
+    pending.clear();
+    durableSeq = appendedSeq;
+    channel.close();
+    startSegment(segment + 1);
+    notifyAll();
+    return segment;
+  }
+
+  private void startSegment(long number) throws IOException {
+    segment = number;
+    channel = FileChannel.open(segmentFile(directory, number).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.put(MAGIC).put((byte) FORMAT_VERSION).flip();
+    while (header.hasRemaining()) {
+      channel.write(header);
+    }
+    channel.force(false);
+    segmentBytes = HEADER_SIZE;
+    defined.clear();
+  }
+
+  /**
+   * apply the valid records of the segment to the store and cut off a torn or corrupt tail of the
+   * newest segment
+   *
+   * @param newest true for the segment written last, the only one a crash can tear
+   * @return the number of bytes replayed
+   * @throws IOException if a segment before the newest one is not valid up to its end
+   */
+  private static long replay(File file, MilkStore store, boolean newest)
+      throws IOException {
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    if (bytes.length < HEADER_SIZE
+        || !Arrays.equals(MAGIC, Arrays.copyOf(bytes, MAGIC.length))
+        || FORMAT_VERSION != bytes[MAGIC.length]) {
+      if (!newest) {
+        throw new IOException("The log segment " + file + " has no header");
+      }
+      Files.delete(file.toPath());
+      return 0;
+    }
+    ByteBuffer in = ByteBuffer.wrap(bytes);
+    in.position(HEADER_SIZE);
+    // store code + 1 of each logged code, 0 before its definition
+    int[] codes = new int[16];
+    CRC32 crc = new CRC32();
+    int valid = HEADER_SIZE;
+    while (in.remaining() >= 8) {
+      int length = in.getInt();
+      if (length < 1 || length > in.remaining() - 4) {
+        break;
+      }
+      crc.reset();
+      crc.update(bytes, in.position(), length);
+      if ((int) crc.getValue() != in.getInt(in.position() + length)) {
+        break;
+      }
+      byte type = in.get();
+      if (CLEAR == type) {
+        store.clear();
+        Arrays.fill(codes, 0);
+      } else {
+        int code = in.getInt();
+        if (code < 0) {
+          break;
+        }
+        if (code >= codes.length) {
+          codes = Arrays.copyOf(codes, Math.max(code + 1, codes.length * 2));
+        }
+        if (DEFINE == type) {
+          int nameLength = in.getInt();
+          codes[code] = 1 + store.getDictionary().intern(new String(bytes,
+              in.position(), nameLength, StandardCharsets.UTF_8));
+        } else if (0 == codes[code]) {
+          break;
+        } else if (INSERT == type) {
+          store.insert(codes[code] - 1, in.getInt(), in.getInt());
+        } else if (UPDATE == type) {
+          store.update(codes[code] - 1, in.getInt(), in.getInt());
+        } else if (REMOVE == type) {
+          store.remove(codes[code] - 1, in.getInt());
+        } else {
+          break;
+        }
+      }
+      valid += 4 + length + 4;
+      in.position(valid);
+    }
+    if (valid < bytes.length && !newest) {
+      throw new IOException("The log segment " + file
+          + " is corrupt at byte " + valid + " before the newest segment");
+    }
+    if (valid < bytes.length) {
+      try (FileChannel channel =
+          FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+        channel.truncate(valid);
+        channel.force(false);
+      }
+    }
+    return valid;
+  }
+
+  private static File[] listFiles(File directory) throws IOException {
+    File[] files = directory.listFiles();
+    if (null == files) {
+      throw new IOException("Can not list " + directory);
+    }
+    return files;
+  }
+
+  private static File segmentFile(File directory, long number) {
+    return new File(directory, "wal-" + number + ".log");
+  }
+
+  private static File snapshotFile(File directory, long cut) {
+    return new File(directory,
+        "snapshot-" + cut + MilkBinaryFormat.EXTENSION);
+  }
+
+  /**
+   * Growable byte buffer of framed records: length, type and fields, then a CRC32 of type and
+   * fields
+   */
+  private static class Buffer {
+    private byte[] bytes = new byte[1 << 12];
+    private int size;
+    private CRC32 crc = new CRC32();
+
+    int begin(byte type) {
+      int start = size;
+      putInt(0);
+      ensure(1);
+      bytes[size++] = type;
+      return start;
+    }
+
+    void end(int start) {
+      int length = size - start - 4;
+      setInt(start, length);
+      crc.reset();
+      crc.update(bytes, start + 4, length);
+      putInt((int) crc.getValue());
+    }
+
+    void putInt(int value) {
+      ensure(4);
+      setInt(size, value);
+      size += 4;
+    }
+
+    void put(byte[] value) {
+      ensure(value.length);
+      System.arraycopy(value, 0, bytes, size, value.length);
+      size += value.length;
+    }
+
+    void writeTo(FileChannel channel) throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, size);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    private void setInt(int pos, int value) {
+      bytes[pos] = (byte) (value >>> 24);
+      bytes[pos + 1] = (byte) (value >>> 16);
+      bytes[pos + 2] = (byte) (value >>> 8);
+      bytes[pos + 3] = (byte) value;
+    }
+
+    private void ensure(int extra) {
+      if (size + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+      }
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package benchmark;
+
+/**
+ * Headless benchmark suite covering ingestion, store mutation, sorting and every report type on the
+ * bundled csv datasets and on synthetic histories built by shifting the large dataset into earlier
+ * years. Results can be written to a csv file and compared with a previous run, the exit code is 1
+ * when a benchmark got slower than the allowed threshold.
+ *
+ * Usage: java -cp . benchmark.BenchmarkSuite [--datasets small,medium,large,synthetic]
+ * [--years 20] [--filter regex] [--warmup 3] [--iterations 5] [--time 500] [--csv out.csv]
+ * [--baseline old.csv] [--threshold 0.2]
+ */
+
+import application.CheeseFactory;
+import application.CsvExporter;
+import application.DataManager;
+import application.Farm;
+import application.FarmDictionary;
+import application.FarmRecordParser;
+import application.FileManager;
+import application.FiledType;
+import application.MilkBinaryFormat;
+import application.MilkStore;
+import application.ParallelAggregator;
+import application.Util;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class BenchmarkSuite {
+
+  private static final String CSV_ROOT = "csv/csv/";
+
+  private Harness harness;
+  private Pattern filter;
+  private List<Harness.Result> results = new ArrayList<>();
+
+  public BenchmarkSuite(Harness harness, Pattern filter) {
+    this.harness = harness;
+    this.filter = filter;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = parseOptions(args);
+    Harness harness =
+        new Harness(Integer.parseInt(options.getOrDefault("warmup", "3")),
+            Integer.parseInt(options.getOrDefault("iterations", "5")),
+            Long.parseLong(options.getOrDefault("time", "500")));
+    BenchmarkSuite suite = new BenchmarkSuite(harness,
+        Pattern.compile(options.getOrDefault("filter", ".*")));
+    int years = Integer.parseInt(options.getOrDefault("years", "20"));
+    for (String dataset : options
+        .getOrDefault("datasets", "small,medium,large,synthetic")
+        .split(",")) {
+      if ("synthetic".equals(dataset)) {
+        suite.runStoreAndReports(dataset + "-" + years + "y",
+            new File(CSV_ROOT + "large"), years);
+      } else {
+        File folder = new File(CSV_ROOT + dataset);
+        suite.runIngestion(dataset, folder);
+        suite.runStoreAndReports(dataset, folder, 1);
+      }
+    }
+    System.out.println("blackhole " + harness.getBlackhole());
+
+    if (options.containsKey("csv")) {
+      suite.writeCsv(new File(options.get("csv")));
+    }
+    if (options.containsKey("baseline")) {
+      double threshold =
+          Double.parseDouble(options.getOrDefault("threshold", "0.2"));
+      if (!suite.compare(new File(options.get("baseline")), threshold)) {
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * parse and read benchmarks on the files of one folder
+   */
+  private void runIngestion(String dataset, File folder) throws Exception {
+    File[] files = folder.listFiles(File::isFile);
+    if (null == files) {
+      System.err.println("No files in " + folder.getAbsolutePath());
+      return;
+    }
+    List<byte[]> contents = new ArrayList<>();
+    List<String> lines = new ArrayList<>();
+    for (File file : files) {
+      contents.add(Files.readAllBytes(file.toPath()));
+      FileManager fileManager = new FileManager();
+      fileManager.readFile(file);
+      lines.addAll(fileManager.getFileContents());
+    }
+    int rows = lines.size();
+
+    run("parse/Util.parseFarm", dataset, rows, () -> {
+      long sum = 0;
+      for (String line : lines) {
+        sum += Util.parseFarm(line).getWeight();
+      }
+      return sum;
+    });
+    run("parse/FarmRecordParser", dataset, rows, () -> {
+      long[] sum = new long[1];
+      FarmRecordParser parser = new FarmRecordParser(new FarmDictionary());
+      for (byte[] bytes : contents) {
+        parser.parse(bytes, 0, bytes.length, true,
+            record -> sum[0] += record.getWeight());
+      }
+      return sum[0];
+    });
+    run("read/FileManager.readFile", dataset, rows, () -> {
+      long count = 0;
+      FileManager fileManager = new FileManager();
+      for (File file : files) {
+        fileManager.readFile(file);
+        count += fileManager.getFileContents().size();
+      }
+      return count;
+    });
+    run("read/FileManager.readMapped", dataset, rows, () -> {
+      long count = 0;
+      FileManager fileManager = new FileManager();
+      FarmDictionary dictionary = new FarmDictionary();
+      for (File file : files) {
+        count += fileManager.readMapped(file, dictionary, record -> {
+        }).getRows();
+      }
+      return count;
+    });
+  }
+
+  /**
+   * store mutation, sorting and report benchmarks on the rows of one folder shifted over the given
+   * number of years
+   */
+  private void runStoreAndReports(String dataset, File folder, int years)
+      throws Exception {
+    MilkStore store = CheeseFactory.getStore();
+    store.clear();
+    FarmReportBenchmark.loadShifted(folder, years);
+    List<Farm> farms = CheeseFactory.getFarms();
+    if (farms.isEmpty()) {
+      System.err.println("No data in " + folder.getAbsolutePath());
+      return;
+    }
+    int rows = farms.size();
+    String[] farmIds =
+        farms.stream().map(Farm::getId).distinct().toArray(String[]::new);
+    int lastYear = farms.stream().mapToInt(Farm::getYear).max().getAsInt();
+
+    run("store/insertFarm", dataset, rows, () -> {
+      store.clear();
+      long inserted = 0;
+      for (Farm farm : farms) {
+        inserted += CheeseFactory.insertFarm(farm) ? 1 : 0;
+      }
+      return inserted;
+    });
+    int[] delta = {0};
+    run("store/editFarm", dataset, rows, () -> {
+      long edited = 0;
+      delta[0] ^= 1;
+      for (Farm farm : farms) {
+        edited += CheeseFactory.editFarm(new Farm(farm.getId(),
+            farm.getDate(), farm.getWeight() + delta[0])) ? 1 : 0;
+      }
+      return edited;
+    });
+    run("store/getFarms", dataset, rows,
+        () -> CheeseFactory.getFarms().size());
+    File export = File.createTempFile("milk-export", ".csv");
+    export.deleteOnExit();
+    run("export/csv", dataset, rows, () -> new CsvExporter()
+        .export(CheeseFactory.snapshot(), export));
+    run("export/binary", dataset, rows, () -> {
+      MilkBinaryFormat.write(CheeseFactory.snapshot(), export);
+      return export.length();
+    });
+    run("store/snapshot", dataset, rows, () -> {
+      // edit one record so every snapshot is taken of a new version
+      Farm farm = farms.get(0);
+      CheeseFactory.editFarm(new Farm(farm.getId(), farm.getDate(),
+          farm.getWeight() + (delta[0] ^= 1)));
+      return CheeseFactory.snapshot().size();
+    });
+
+    DataManager dataManager = new DataManager();
+    for (FiledType field : FiledType.values()) {
+      for (boolean asc : new boolean[] {true, false}) {
+        run("sort/" + field + (asc ? "-asc" : "-desc"), dataset, rows,
+            () -> dataManager.getDataSortedByField(field, asc).size());
+      }
+    }
+    int[] next = {0};
+    run("report/farm", dataset, 0, () -> dataManager
+        .getFarmReport(farmIds[next[0]++ % farmIds.length], lastYear).size());
+    run("report/annual", dataset, 0, () -> dataManager
+        .getAnnualReport(lastYear, FiledType.WEIGHT, false).size());
+    run("report/monthly", dataset, 0,
+        () -> dataManager.getMonthlyReport(lastYear, next[0]++ % 12 + 1,
+            FiledType.ID, true).size());
+    LocalDate end = LocalDate.of(lastYear, 12, 31);
+    run("report/dateRange", dataset, 0,
+        () -> dataManager.getDateRangeReports(
+            end.minusYears(years).plusDays(next[0]++ % 200), end,
+            FiledType.WEIGHT, true).size());
+    // the same reports on the calling thread only, to compare with the parallel engine
+    DataManager sequential =
+        new DataManager(new ParallelAggregator(1, Integer.MAX_VALUE));
+    run("report/annual-sequential", dataset, 0, () -> sequential
+        .getAnnualReport(lastYear, FiledType.WEIGHT, false).size());
+    run("report/dateRange-sequential", dataset, 0,
+        () -> sequential.getDateRangeReports(
+            end.minusYears(years).plusDays(next[0]++ % 200), end,
+            FiledType.WEIGHT, true).size());
+    store.clear();
+  }
+
+  private void run(String name, String dataset, long rowsPerOp,
+      Harness.Operation operation) throws Exception {
+    if (!filter.matcher(name).find()) {
+      return;
+    }
+    Harness.Result result =
+        harness.measure(name, dataset, rowsPerOp, operation);
+    results.add(result);
+    System.out.println(String.format("%-32s%-16s%,18.0f ns/op%s", name,
+        dataset, result.getNanosPerOp(), 0 == rowsPerOp ? ""
+            : String.format("%,18.0f rows/s", result.getRowsPerSec())));
+  }
+
+  private void writeCsv(File file) throws Exception {
+    try (PrintWriter writer = new PrintWriter(file)) {
+      writer.println("benchmark,dataset,ns_per_op,rows_per_sec");
+      for (Harness.Result result : results) {
+        writer.println(result.getName() + "," + result.getDataset() + ","
+            + (long) result.getNanosPerOp() + ","
+            + (long) result.getRowsPerSec());
+      }
+    }
+  }
+
+  /**
+   * compare the results with a csv file written by a previous run
+   *
+   * @return false if any benchmark is slower than the baseline by more than the threshold
+   */
+  private boolean compare(File baseline, double threshold) throws Exception {
+    Map<String, Double> previous = new HashMap<>();
+    for (String line : Files.readAllLines(baseline.toPath())) {
+      String[] split = line.split(",");
+      if (4 == split.length && !"benchmark".equals(split[0])) {
+        previous.put(split[0] + "@" + split[1], Double.parseDouble(split[2]));
+      }
+    }
+    boolean passed = true;
+    for (Harness.Result result : results) {
+      Double old = previous.get(result.getKey());
+      if (null != old && result.getNanosPerOp() > old * (1 + threshold)) {
+        passed = false;
+        System.out.println(String.format("REGRESSION %s: %,.0f -> %,.0f ns/op",
+            result.getKey(), old, result.getNanosPerOp()));
+      }
+    }
+    return passed;
+  }
+
+  private static Map<String, String> parseOptions(String[] args) {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!args[i].startsWith("--")) {
+        throw new IllegalArgumentException("Illegal option:" + args[i]);
+      }
+      options.put(args[i].substring(2), args[i + 1]);
+    }
+    return options;
+  }
+}
@@ -0,0 +1,151 @@
+package benchmark;
+
+/**
+ * Compares the farm report of DataManager, one fused pass over the monthly rollups, against the
+ * previous stream based implementation that copies the dataset five times per report. The bundled
+ * csv files are loaded and shifted into earlier years to grow the history.
+ *
+ * Usage: java -cp . benchmark.FarmReportBenchmark [folder] [years] [rounds]
+ */
+
+import application.CheeseFactory;
+import application.DataManager;
+import application.Farm;
+import application.FarmRecordParser;
+import application.FileManager;
+import application.MilkStore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class FarmReportBenchmark {
+
+  public static void main(String[] args) {
+    File folder = new File(args.length > 0 ? args[0] : "csv/csv/large");
+    int years = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    int rows = loadShifted(folder, years);
+    if (0 == rows) {
+      System.err.println("No data in " + folder.getAbsolutePath());
+      return;
+    }
+    List<String> farmIds = CheeseFactory.getFarms().stream().map(Farm::getId)
+        .distinct().sorted().collect(Collectors.toList());
+    int year = 2019;
+    System.out.println(String.format("%,d rows, %d farms, %d years", rows,
+        farmIds.size(), years));
+
+    DataManager dataManager = new DataManager();
+    long checksum = 0;
+    // warm up both implementations before measuring
+    for (int i = 0; i < 3; i++) {
+      checksum += legacyFarmReport(farmIds.get(i % farmIds.size()), year).size();
+      for (String farmId : farmIds) {
+        checksum += dataManager.getFarmReport(farmId, year).size();
+      }
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      checksum +=
+          legacyFarmReport(farmIds.get(i % farmIds.size()), year).size();
+    }
+    double legacy = (System.nanoTime() - start) / 1e3 / rounds;
+    int fusedRounds = rounds * 100;
+    start = System.nanoTime();
+    for (int i = 0; i < fusedRounds; i++) {
+      checksum += dataManager.getFarmReport(farmIds.get(i % farmIds.size()),
+          year).size();
+    }
+    double fused = (System.nanoTime() - start) / 1e3 / fusedRounds;
+    System.out.println(String.format("%-20s%,15.1f us/report", "legacy streams",
+        legacy));
+    System.out.println(
+        String.format("%-20s%,15.1f us/report", "fused rollups", fused));
+    System.out.println(String.format("speedup %,.0fx, checksum %d",
+        legacy / fused, checksum));
+  }
+
+  /**
+   * load every file of the folder and copy its rows into the given number of consecutive years
+   * ending with the original one
+   *
+   * @return the number of rows in the store
+   */
+  static int loadShifted(File folder, int years) {
+    File[] files = folder.listFiles(File::isFile);
+    if (null == files) {
+      return 0;
+    }
+    MilkStore store = CheeseFactory.getStore();
+    for (File file : files) {
+      FileManager fileManager = new FileManager();
+      for (int shift = 0; shift < years; shift++) {
+        int days = (int) Math.round(shift * 365.25);
+        FarmRecordParser parser = fileManager.readMapped(file,
+            store.getDictionary(), record -> store.insert(record.getFarmCode(),
+                record.getDay() - days, record.getWeight()));
+        if (null == parser) {
+          return 0;
+        }
+      }
+    }
+    return store.size();
+  }
+
+  /**
+   * the farm report as computed before the rollups: five full copies and filters of the dataset
+   *
+   * @return one row per month: month, total, percent, min, max, average
+   */
+  static List<double[]> legacyFarmReport(String farmId, int year) {
+    List<Farm> farms = CheeseFactory.getFarms();
+    farms = farms.stream().filter(farm -> farm.getYear() == year)
+        .collect(Collectors.toList());
+    Map<Integer, Double> monthTotalMapForAllFarms =
+        farms.stream().collect(Collectors.groupingBy(Farm::getMonth,
+            Collectors.summingDouble(Farm::getWeight)));
+    farms = farms.stream().filter(farm -> farm.getId().equals(farmId))
+        .collect(Collectors.toList());
+    Map<Integer, Integer> monthTotalMapForFarm =
+        farms.stream().collect(Collectors.groupingBy(Farm::getMonth,
+            Collectors.summingInt(Farm::getWeight)));
+    Map<Integer, Optional<Farm>> monthMinMap =
+        groupByMonth(farmId, year, Collectors.minBy(
+            Comparator.comparing(Farm::getWeight)));
+    Map<Integer, Optional<Farm>> monthMaxMap =
+        groupByMonth(farmId, year, Collectors.maxBy(
+            Comparator.comparing(Farm::getWeight)));
+    Map<Integer, Double> monthlyAvgWeightMap = groupByMonth(farmId, year,
+        Collectors.averagingDouble(Farm::getWeight));
+
+    List<double[]> reports = new ArrayList<>();
+    monthTotalMapForFarm.forEach((month, totalForFarm) -> {
+      double total = monthTotalMapForAllFarms.get(month);
+      reports.add(new double[] {month, totalForFarm,
+          totalForFarm / total * 100,
+          monthMinMap.get(month).get().getWeight(),
+          monthMaxMap.get(month).get().getWeight(),
+          monthlyAvgWeightMap.get(month)});
+    });
+    reports.sort(Comparator.comparingDouble(report -> report[0]));
+    return reports;
+  }
+
+  private static <T> Map<Integer, T> groupByMonth(String farmId, int year,
+      Collector<Farm, ?, T> downstream) {
+    List<Farm> farms = CheeseFactory.getFarms();
+    return new TreeMap<>(farms.stream()
+        .filter(farm -> farm.getId().equals(farmId) && farm.getYear() == year)
+        .collect(Collectors.groupingBy(Farm::getMonth, downstream)));
+  }
+}
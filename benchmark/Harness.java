@@ -0,0 +1,131 @@
+package benchmark;
+
+/**
+ * Minimal headless benchmark harness in the spirit of JMH: every benchmark runs a number of timed
+ * warmup iterations and then measured iterations of a fixed duration, and every result is consumed
+ * so the JIT can not drop the work.
+ */
+
+import java.util.Arrays;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class Harness {
+
+  private int warmupIterations;
+  private int measureIterations;
+  private long iterationNanos;
+  private long blackhole;
+
+  /**
+   * @param warmupIterations number of warmup iterations
+   * @param measureIterations number of measured iterations
+   * @param iterationMillis duration of one iteration
+   */
+  public Harness(int warmupIterations, int measureIterations,
+      long iterationMillis) {
+    this.warmupIterations = warmupIterations;
+    this.measureIterations = measureIterations;
+    this.iterationNanos = iterationMillis * 1_000_000L;
+  }
+
+  /**
+   * One operation of a benchmark, the returned value is consumed by the harness
+   */
+  public interface Operation {
+    long run() throws Exception;
+  }
+
+  /**
+   * measure the given operation
+   *
+   * @param name benchmark name
+   * @param dataset dataset name
+   * @param rowsPerOp number of rows handled by one operation, used for the rows/sec figure
+   * @param operation given operation
+   * @return the median of the measured iterations
+   * @throws Exception if the operation fails
+   */
+  public Result measure(String name, String dataset, long rowsPerOp,
+      Operation operation) throws Exception {
+    for (int i = 0; i < warmupIterations; i++) {
+      iteration(operation);
+    }
+    double[] nanosPerOp = new double[measureIterations];
+    for (int i = 0; i < measureIterations; i++) {
+      nanosPerOp[i] = iteration(operation);
+    }
+    Arrays.sort(nanosPerOp);
+    return new Result(name, dataset, nanosPerOp[measureIterations / 2],
+        rowsPerOp);
+  }
+
+  /**
+   * run the operation until the iteration time is over
+   *
+   * @return the average nanoseconds per operation
+   */
+  private double iteration(Operation operation) throws Exception {
+    long ops = 0;
+    long start = System.nanoTime();
+    long elapsed;
+    do {
+      blackhole += operation.run();
+      ops++;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < iterationNanos);
+    return (double) elapsed / ops;
+  }
+
+  /**
+   * @return the sum of all consumed values, print it so the work is observable
+   */
+  public long getBlackhole() {
+    return blackhole;
+  }
+
+  /**
+   * The measured time of one benchmark on one dataset
+   */
+  public static class Result {
+    private String name;
+    private String dataset;
+    private double nanosPerOp;
+    private long rowsPerOp;
+
+    public Result(String name, String dataset, double nanosPerOp,
+        long rowsPerOp) {
+      this.name = name;
+      this.dataset = dataset;
+      this.nanosPerOp = nanosPerOp;
+      this.rowsPerOp = rowsPerOp;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getDataset() {
+      return dataset;
+    }
+
+    public double getNanosPerOp() {
+      return nanosPerOp;
+    }
+
+    /**
+     * @return the number of rows handled per second, 0 when the benchmark is not row based
+     */
+    public double getRowsPerSec() {
+      return 0 == rowsPerOp ? 0 : rowsPerOp * 1e9 / nanosPerOp;
+    }
+
+    /**
+     * @return the key identifying this result in a baseline
+     */
+    public String getKey() {
+      return name + "@" + dataset;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package benchmark;
+
+/**
+ * Compares the per-record range scan that accounted each weight into the stats with the fused
+ * WeightKernels slice kernel, on a synthetic day-sorted column. The default of 100M rows needs
+ * about 1GB of heap.
+ *
+ * Usage: java -Xmx1g -cp . benchmark.KernelBenchmark [--rows 100000000] [--warmup 3]
+ * [--iterations 5] [--time 1000]
+ */
+
+import application.RangeStats;
+import application.WeightKernels;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class KernelBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+    }
+    int rows = Integer.parseInt(options.getOrDefault("rows", "100000000"));
+    Harness harness =
+        new Harness(Integer.parseInt(options.getOrDefault("warmup", "3")),
+            Integer.parseInt(options.getOrDefault("iterations", "5")),
+            Long.parseLong(options.getOrDefault("time", "1000")));
+
+    // one record per day, weights like the bundled datasets
+    int[] days = new int[rows];
+    int[] weights = new int[rows];
+    Random random = new Random(42);
+    for (int i = 0; i < rows; i++) {
+      days[i] = i;
+      weights[i] = 5000 + random.nextInt(15000);
+    }
+    String dataset = "synthetic-" + rows;
+    RangeStats stats = new RangeStats();
+    int[][] ranges = {{0, rows - 1}, {rows / 4, rows / 4 * 3}};
+    String[] rangeNames = {"all", "half"};
+    for (int r = 0; r < ranges.length; r++) {
+      int fromDay = ranges[r][0];
+      int toDay = ranges[r][1];
+      long rowsPerOp = toDay - fromDay + 1L;
+      Harness.Result scalar = harness.measure("kernel/per-record-" + rangeNames[r],
+          dataset, rowsPerOp, () -> {
+            stats.clear();
+            int from = Arrays.binarySearch(days, fromDay);
+            from = from < 0 ? -from - 1 : from;
+            for (int i = from; i < rows && days[i] <= toDay; i++) {
+              stats.add(weights[i]);
+            }
+            return stats.getSum() + stats.getMin() + stats.getMax();
+          });
+      Harness.Result fused = harness.measure("kernel/fused-" + rangeNames[r],
+          dataset, rowsPerOp, () -> {
+            stats.clear();
+            int from = Arrays.binarySearch(days, fromDay);
+            from = from < 0 ? -from - 1 : from;
+            int to = Arrays.binarySearch(days, from, rows, toDay);
+            to = to < 0 ? -to - 1 : to + 1;
+            WeightKernels.aggregate(weights, from, to, stats);
+            return stats.getSum() + stats.getMin() + stats.getMax();
+          });
+      for (Harness.Result result : new Harness.Result[] {scalar, fused}) {
+        System.out.println(String.format("%-32s%-20s%,18.0f ns/op%,18.0f rows/s",
+            result.getName(), result.getDataset(), result.getNanosPerOp(),
+            result.getRowsPerSec()));
+      }
+      System.out.println(String.format("speedup %.2fx",
+          scalar.getNanosPerOp() / fused.getNanosPerOp()));
+    }
+    System.out.println("blackhole " + harness.getBlackhole());
+  }
+}
@@ -0,0 +1,87 @@
+package benchmark;
+
+/**
+ * Measures the parsing throughput in rows/sec of Util.parseFarm against the streaming
+ * FarmRecordParser on the bundled csv files. Both parsers work on files already in memory.
+ *
+ * Usage: java -cp . benchmark.ParserThroughput [folder] [rounds]
+ */
+
+import application.FarmDictionary;
+import application.FarmRecord;
+import application.FarmRecordParser;
+import application.FileManager;
+import application.Util;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class ParserThroughput {
+
+  public static void main(String[] args) throws Exception {
+    File folder = new File(args.length > 0 ? args[0] : "csv/csv/large");
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    File[] files = folder.listFiles(File::isFile);
+    if (null == files || 0 == files.length) {
+      System.err.println("No files in " + folder.getAbsolutePath());
+      return;
+    }
+    List<byte[]> contents = new ArrayList<>();
+    List<String> lines = new ArrayList<>();
+    for (File file : files) {
+      contents.add(Files.readAllBytes(file.toPath()));
+      FileManager fileManager = new FileManager();
+      fileManager.readFile(file);
+      lines.addAll(fileManager.getFileContents());
+    }
+
+    // warm up both parsers before measuring
+    for (int i = 0; i < rounds / 4 + 1; i++) {
+      parseFarms(lines);
+      parseRecords(contents);
+    }
+    long start = System.nanoTime();
+    long checksum = 0;
+    for (int i = 0; i < rounds; i++) {
+      checksum += parseFarms(lines);
+    }
+    report("Util.parseFarm", (long) rounds * lines.size(),
+        System.nanoTime() - start);
+    start = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      checksum += parseRecords(contents);
+    }
+    report("FarmRecordParser", (long) rounds * lines.size(),
+        System.nanoTime() - start);
+    System.out.println("checksum " + checksum);
+  }
+
+  private static long parseFarms(List<String> lines) {
+    long sum = 0;
+    for (String line : lines) {
+      sum += Util.parseFarm(line).getWeight();
+    }
+    return sum;
+  }
+
+  private static long parseRecords(List<byte[]> contents) {
+    FarmDictionary dictionary = new FarmDictionary();
+    FarmRecordParser parser = new FarmRecordParser(dictionary);
+    long[] sum = new long[1];
+    for (byte[] bytes : contents) {
+      parser.parse(bytes, 0, bytes.length, true,
+          (FarmRecord record) -> sum[0] += record.getWeight());
+    }
+    return sum[0];
+  }
+
+  private static void report(String name, long rows, long nanos) {
+    System.out.println(String.format("%-20s%,15.0f rows/sec", name,
+        rows * 1e9 / nanos));
+  }
+}
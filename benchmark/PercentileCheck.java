@@ -0,0 +1,153 @@
+package benchmark;
+
+/**
+ * Checks the percentile report of DataManager against exact quantiles computed by sorting the
+ * records of each farm, over ranges of whole and partial months and again after records were
+ * edited and removed. Exits with code 1 if any farm differs.
+ *
+ * Usage: java -cp . benchmark.PercentileCheck [folder]
+ */
+
+import application.CheeseFactory;
+import application.DataManager;
+import application.Farm;
+import application.FolderImporter;
+import application.MilkSnapshot;
+import application.ReportTable;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class PercentileCheck {
+
+  private static final double[] QUANTILES = {0, 0.1, 0.25, 0.5, 0.9, 0.99, 1};
+  private static final String[][] RANGES = {{"2019-01-01", "2019-12-31"},
+      {"2019-03-01", "2019-03-31"}, {"2019-01-05", "2019-02-03"},
+      {"2019-02-15", "2019-11-20"}, {"2019-06-30", "2019-06-30"},
+      {"2018-01-01", "2020-12-31"}};
+
+  public static void main(String[] args) throws Exception {
+    File folder = new File(args.length > 0 ? args[0] : "csv/csv/large");
+    File[] files = folder.listFiles();
+    if (null == files || 0 == files.length) {
+      System.err.println("No data in " + folder.getAbsolutePath());
+      System.exit(1);
+    }
+    FolderImporter.ImportResult result =
+        new FolderImporter().importFiles(Arrays.asList(files), null);
+    result.merge();
+    System.out.println(String.format("%,d rows, %d farms",
+        CheeseFactory.getStore().size(),
+        CheeseFactory.getStore().getDictionary().size()));
+
+    DataManager dataManager = new DataManager();
+    int mismatches = checkRanges(dataManager);
+
+    // the monthly summaries must follow edits and removals of the store
+    List<Farm> farms = CheeseFactory.getFarms();
+    for (int i = 0; i < farms.size(); i++) {
+      Farm farm = farms.get(i);
+      if (0 == i % 7) {
+        CheeseFactory.editFarm(new Farm(farm.getId(), farm.getDate(),
+            farm.getWeight() + i % 500 - 250));
+      } else if (0 == i % 11) {
+        CheeseFactory.removeFarm(farm);
+      }
+    }
+    System.out.println("after edits and removals");
+    mismatches += checkRanges(dataManager);
+
+    System.out.println(0 == mismatches ? "all percentiles exact"
+        : mismatches + " mismatches");
+    if (mismatches > 0) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * @return the number of farms whose reported percentiles differ from the exact ones
+   */
+  private static int checkRanges(DataManager dataManager) {
+    int mismatches = 0;
+    for (String[] range : RANGES) {
+      LocalDate start = LocalDate.parse(range[0]);
+      LocalDate end = LocalDate.parse(range[1]);
+      Map<String, double[]> reported = parse(ReportTable.ofPercentileReports(
+          dataManager.getPercentileReports(start, end, QUANTILES), QUANTILES)
+          .toCsv());
+      Map<String, double[]> exact = exactPercentiles(start, end);
+      int farmMismatches = 0;
+      for (Map.Entry<String, double[]> entry : exact.entrySet()) {
+        double[] values = reported.get(entry.getKey());
+        if (!Arrays.equals(entry.getValue(), values)) {
+          if (0 == farmMismatches) {
+            System.out.println("  " + entry.getKey() + " expected "
+                + Arrays.toString(entry.getValue()) + " got "
+                + Arrays.toString(values));
+          }
+          farmMismatches++;
+        }
+      }
+      farmMismatches += Math.max(0, reported.size() - exact.size());
+      System.out.println(String.format("%s..%s %d farms, %d mismatches",
+          start, end, exact.size(), farmMismatches));
+      mismatches += farmMismatches;
+    }
+    return mismatches;
+  }
+
+  /**
+   * @return the count and the lower quantiles of the weights of each farm with records in the range
+   */
+  private static Map<String, double[]> exactPercentiles(LocalDate start,
+      LocalDate end) {
+    MilkSnapshot snapshot = CheeseFactory.snapshot();
+    Map<String, double[]> exact = new HashMap<>();
+    for (int code = 0; code < snapshot.getFarmCount(); code++) {
+      List<Integer> weights = new ArrayList<>();
+      for (int pos = 0; pos < snapshot.size(code); pos++) {
+        int day = snapshot.dayAt(code, pos);
+        if (day >= start.toEpochDay() && day <= end.toEpochDay()) {
+          weights.add(snapshot.weightAt(code, pos));
+        }
+      }
+      if (weights.isEmpty()) {
+        continue;
+      }
+      weights.sort(null);
+      double[] values = new double[1 + QUANTILES.length];
+      values[0] = weights.size();
+      for (int i = 0; i < QUANTILES.length; i++) {
+        values[1 + i] =
+            weights.get((int) (QUANTILES[i] * (weights.size() - 1)));
+      }
+      exact.put(snapshot.nameOf(code), values);
+    }
+    return exact;
+  }
+
+  /**
+   * @return the count and the quantile values of each farm of the csv report
+   */
+  private static Map<String, double[]> parse(String csv) {
+    Map<String, double[]> reported = new HashMap<>();
+    String[] lines = csv.split("\n");
+    for (int i = 1; i < lines.length; i++) {
+      String[] fields = lines[i].split(",");
+      double[] values = new double[fields.length - 1];
+      for (int j = 1; j < fields.length; j++) {
+        values[j - 1] = Double.parseDouble(fields[j]);
+      }
+      reported.put(fields[0], values);
+    }
+    return reported;
+  }
+}
@@ -0,0 +1,359 @@
+package benchmark;
+
+/**
+ * Checks the farm, annual, monthly and date range reports of DataManager, answered from the monthly
+ * rollups and the day range index, and the sorted listings read from the sorted indexes against the
+ * list scans and sorts of the original DataManager. The bundled csv files are loaded with a copy
+ * shifted into the previous year, then every round applies random inserts, edits, removes and a
+ * batch before the results are compared. The reports run on a fork/join pool with a small threshold
+ * so the parallel merge is exercised as well. Exits with code 1 at the first difference.
+ *
+ * Usage: java -cp . benchmark.ReportCheck [folder] [rounds]
+ */
+
+import application.CheeseFactory;
+import application.DataManager;
+import application.Farm;
+import application.FiledType;
+import application.FolderImporter;
+import application.MilkBatch;
+import application.ParallelAggregator;
+import application.ReportTable;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * @author Yiyang Gu ygu75@wisc.edu
+ */
+public class ReportCheck {
+
+  private static final FiledType[] REPORT_ORDERS =
+      {FiledType.ID, FiledType.WEIGHT};
+
+  private Random random = new Random(42);
+  private DataManager dataManager =
+      new DataManager(new ParallelAggregator(4, 64));
+  private int checks;
+
+  public static void main(String[] args) throws Exception {
+    File folder = new File(args.length > 0 ? args[0] : "csv/csv/large");
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+    File[] files = folder.listFiles();
+    if (null == files || 0 == files.length) {
+      System.err.println("No data in " + folder.getAbsolutePath());
+      System.exit(1);
+    }
+    new FolderImporter().importFiles(Arrays.asList(files), null).merge();
+    new ReportCheck().run(rounds);
+  }
+
+  private void run(int rounds) {
+    // a second year through the batch path
+    MilkBatch shifted = new MilkBatch();
+    for (Farm farm : CheeseFactory.getFarms()) {
+      shifted.add(new Farm(farm.getId(), farm.getDate().minusYears(1),
+          farm.getWeight() + random.nextInt(50)));
+    }
+    CheeseFactory.insertBatch(shifted);
+    System.out.println(String.format("%,d rows, %d farms",
+        CheeseFactory.getStore().size(),
+        CheeseFactory.getStore().getDictionary().size()));
+
+    for (int round = 0; round < rounds; round++) {
+      List<Farm> farms = CheeseFactory.getFarms();
+      mutate(farms, round);
+      farms = CheeseFactory.getFarms();
+      Farm sample = farms.get(random.nextInt(farms.size()));
+      int year = sample.getYear();
+      checkFarm(farms, sample.getId(), year);
+      checkAnnual(farms, year);
+      checkMonthly(farms, year, 1 + random.nextInt(12));
+      LocalDate start = sample.getDate().minusDays(random.nextInt(400));
+      checkRange(farms, start, start.plusDays(random.nextInt(500) - 5));
+      checkSorted(farms);
+    }
+
+    // every farm, year and month of the final state
+    List<Farm> farms = CheeseFactory.getFarms();
+    TreeSet<String> ids = new TreeSet<>();
+    TreeSet<Integer> years = new TreeSet<>();
+    for (Farm farm : farms) {
+      ids.add(farm.getId());
+      years.add(farm.getYear());
+    }
+    for (int year : years) {
+      for (String id : ids) {
+        checkFarm(farms, id, year);
+      }
+      checkAnnual(farms, year);
+      for (int month = 1; month <= 12; month++) {
+        checkMonthly(farms, year, month);
+      }
+    }
+    checkRange(farms, LocalDate.of(years.first(), 2, 14),
+        LocalDate.of(years.last(), 3, 3));
+    checkSorted(farms);
+    System.out.println(String.format("%,d rows, %d checks, all reports match",
+        farms.size(), checks));
+  }
+
+  /**
+   * apply random inserts, edits and removes around existing records and one batch, every fifth round
+   * a batch large enough to take the store's bulk path
+   */
+  private void mutate(List<Farm> farms, int round) {
+    for (int i = 0; i < 300; i++) {
+      Farm farm = farms.get(random.nextInt(farms.size()));
+      LocalDate date = 0 == random.nextInt(3)
+          ? farm.getDate().plusDays(random.nextInt(2000) - 1000)
+          : farm.getDate();
+      switch (random.nextInt(4)) {
+        case 0:
+          CheeseFactory.removeFarm(farm);
+          break;
+        case 1:
+          CheeseFactory.editFarm(
+              new Farm(farm.getId(), farm.getDate(), random.nextInt(5000)));
+          break;
+        default:
+          CheeseFactory.insertFarm(
+              new Farm(farm.getId(), date, random.nextInt(5000)));
+          break;
+      }
+    }
+    MilkBatch batch = new MilkBatch();
+    int size = 4 == round % 5 ? 6000 : 500;
+    for (int i = 0; i < size; i++) {
+      Farm farm = farms.get(random.nextInt(farms.size()));
+      batch.add(new Farm(0 == random.nextInt(10) ? "Farm new" : farm.getId(),
+          farm.getDate().plusDays(random.nextInt(60) - 30),
+          random.nextInt(5000)));
+    }
+    CheeseFactory.insertBatch(batch);
+  }
+
+  private void checkFarm(List<Farm> farms, String farmId, int year) {
+    ReportTable expected = new ReportTable("month", "total_weight",
+        "percent", "min", "max", "avg");
+    Map<Integer, List<Integer>> all = new TreeMap<>();
+    Map<Integer, List<Integer>> mine = new TreeMap<>();
+    for (Farm farm : farms) {
+      if (farm.getYear() == year) {
+        all.computeIfAbsent(farm.getMonth(), m -> new ArrayList<>())
+            .add(farm.getWeight());
+        if (farm.getId().equals(farmId)) {
+          mine.computeIfAbsent(farm.getMonth(), m -> new ArrayList<>())
+              .add(farm.getWeight());
+        }
+      }
+    }
+    Map<Integer, Integer> mins = new TreeMap<>();
+    Map<Integer, Integer> maxs = new TreeMap<>();
+    Map<Integer, Double> avgs = new TreeMap<>();
+    for (Map.Entry<Integer, List<Integer>> entry : mine.entrySet()) {
+      List<Integer> weights = entry.getValue();
+      int total = sum(weights);
+      double percent = total / sumAsDouble(all.get(entry.getKey())) * 100;
+      expected.add(String.valueOf(entry.getKey()), String.valueOf(total),
+          format(percent), String.valueOf(Collections.min(weights)),
+          String.valueOf(Collections.max(weights)), format(avg(weights)));
+      mins.put(entry.getKey(), Collections.min(weights));
+      maxs.put(entry.getKey(), Collections.max(weights));
+      avgs.put(entry.getKey(), avg(weights));
+    }
+    String what = "farm " + farmId + " " + year;
+    check(expected.toCsv(), ReportTable
+        .ofFarmReports(dataManager.getFarmReport(farmId, year)).toCsv(), what);
+    check(avgs.toString(),
+        dataManager.getMonthlyAverageForFarm(farmId, year).toString(),
+        what + " average");
+    check(mins.toString(),
+        weights(dataManager.getMonthlyMinForFarm(farmId, year)),
+        what + " min");
+    check(maxs.toString(),
+        weights(dataManager.getMonthlyMaxForFarm(farmId, year)),
+        what + " max");
+  }
+
+  private void checkAnnual(List<Farm> farms, int year) {
+    List<Farm> selected = new ArrayList<>();
+    for (Farm farm : farms) {
+      if (farm.getYear() == year) {
+        selected.add(farm);
+      }
+    }
+    for (FiledType sortedBy : REPORT_ORDERS) {
+      for (boolean asc : new boolean[] {true, false}) {
+        checkRangeReport(selected,
+            ReportTable.ofRangeReports(
+                dataManager.getAnnualReport(year, sortedBy, asc)),
+            sortedBy, asc, "annual " + year);
+      }
+    }
+  }
+
+  private void checkMonthly(List<Farm> farms, int year, int month) {
+    List<Farm> selected = new ArrayList<>();
+    for (Farm farm : farms) {
+      if (farm.getYear() == year && farm.getMonth() == month) {
+        selected.add(farm);
+      }
+    }
+    for (FiledType sortedBy : REPORT_ORDERS) {
+      for (boolean asc : new boolean[] {true, false}) {
+        checkRangeReport(selected,
+            ReportTable.ofRangeReports(
+                dataManager.getMonthlyReport(year, month, sortedBy, asc)),
+            sortedBy, asc, "monthly " + year + "-" + month);
+      }
+    }
+  }
+
+  private void checkRange(List<Farm> farms, LocalDate start, LocalDate end) {
+    List<Farm> selected = new ArrayList<>();
+    for (Farm farm : farms) {
+      if (!farm.getDate().isBefore(start) && !farm.getDate().isAfter(end)) {
+        selected.add(farm);
+      }
+    }
+    for (FiledType sortedBy : REPORT_ORDERS) {
+      for (boolean asc : new boolean[] {true, false}) {
+        checkRangeReport(selected,
+            ReportTable.ofRangeReports(
+                dataManager.getDateRangeReports(start, end, sortedBy, asc)),
+            sortedBy, asc, "range " + start + ".." + end);
+      }
+    }
+  }
+
+  /**
+   * compare every sorted listing and a few pages of it with a stable sort of all records, a
+   * descending listing keeps equal records in ascending order like a reversed comparator does
+   */
+  private void checkSorted(List<Farm> farms) {
+    for (FiledType field : FiledType.values()) {
+      Comparator<Farm> comparator;
+      if (FiledType.ID == field) {
+        comparator = Comparator.comparing(Farm::getId);
+      } else if (FiledType.DATE == field) {
+        comparator = Comparator.comparing(Farm::getDate);
+      } else {
+        comparator = Comparator.comparing(Farm::getWeight);
+      }
+      for (boolean asc : new boolean[] {true, false}) {
+        List<Farm> expected = new ArrayList<>(farms);
+        expected.sort(asc ? comparator : comparator.reversed());
+        String what = "sorted " + field + (asc ? " asc" : " desc");
+        check(ReportTable.ofFarms(expected).toCsv(), ReportTable
+            .ofFarms(dataManager.getDataSortedByField(field, asc)).toCsv(),
+            what);
+        for (int i = 0; i < 3; i++) {
+          int offset = random.nextInt(expected.size() + 10);
+          int limit = random.nextInt(3000);
+          List<Farm> page =
+              expected.subList(Math.min(offset, expected.size()),
+                  (int) Math.min((long) offset + limit, expected.size()));
+          check(ReportTable.ofFarms(page).toCsv(),
+              ReportTable.ofFarms(dataManager.getDataSortedByField(field, asc,
+                  offset, limit)).toCsv(),
+              what + " offset=" + offset + " limit=" + limit);
+        }
+      }
+    }
+  }
+
+  /**
+   * compare the rows of a report with the per farm sums of the selected records, ignoring the order
+   * of farms with the same total weight, then check the report is sorted
+   */
+  private void checkRangeReport(List<Farm> selected, ReportTable actual,
+      FiledType sortedBy, boolean asc, String what) {
+    Map<String, List<Integer>> byFarm = new TreeMap<>();
+    List<Integer> all = new ArrayList<>();
+    for (Farm farm : selected) {
+      byFarm.computeIfAbsent(farm.getId(), id -> new ArrayList<>())
+          .add(farm.getWeight());
+      all.add(farm.getWeight());
+    }
+    double total = sumAsDouble(all);
+    List<String> expected = new ArrayList<>();
+    for (Map.Entry<String, List<Integer>> entry : byFarm.entrySet()) {
+      List<Integer> weights = entry.getValue();
+      int weight = sum(weights);
+      expected.add(entry.getKey() + "," + weight + ","
+          + format(weight / total * 100) + "," + Collections.min(weights)
+          + "," + Collections.max(weights) + "," + format(avg(weights)));
+    }
+    List<String> rows = new ArrayList<>(Arrays.asList(actual.toCsv().split("\n")));
+    rows.remove(0);
+    List<String> sortedRows = new ArrayList<>(rows);
+    Collections.sort(sortedRows);
+    Collections.sort(expected);
+    what += " " + sortedBy + (asc ? " asc" : " desc");
+    check(String.join("\n", expected), String.join("\n", sortedRows), what);
+    for (int i = 1; i < rows.size(); i++) {
+      String[] previous = rows.get(i - 1).split(",");
+      String[] current = rows.get(i).split(",");
+      int order = FiledType.ID == sortedBy ? previous[0].compareTo(current[0])
+          : Integer.compare(Integer.parseInt(previous[1]),
+              Integer.parseInt(current[1]));
+      if (asc ? order > 0 : order < 0) {
+        fail(what + " is out of order at row " + i);
+      }
+    }
+  }
+
+  private void check(String expected, String actual, String what) {
+    checks++;
+    if (!expected.equals(actual)) {
+      fail(what + "\nexpected:\n" + expected + "\ngot:\n" + actual);
+    }
+  }
+
+  private static void fail(String message) {
+    System.out.println("MISMATCH " + message);
+    System.exit(1);
+  }
+
+  private static String weights(Map<Integer, Optional<Farm>> farms) {
+    Map<Integer, Integer> weights = new TreeMap<>();
+    farms.forEach((month, farm) -> weights.put(month, farm.get().getWeight()));
+    return weights.toString();
+  }
+
+  private static int sum(List<Integer> weights) {
+    int sum = 0;
+    for (int weight : weights) {
+      sum += weight;
+    }
+    return sum;
+  }
+
+  private static double sumAsDouble(List<Integer> weights) {
+    double sum = 0;
+    for (int weight : weights) {
+      sum += weight;
+    }
+    return sum;
+  }
+
+  private static double avg(List<Integer> weights) {
+    return sumAsDouble(weights) / weights.size();
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.ROOT, "%.3f", value);
+  }
+}